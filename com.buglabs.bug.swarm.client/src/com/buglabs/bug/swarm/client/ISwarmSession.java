@@ -79,6 +79,14 @@ public interface ISwarmSession {
 	 */
 	void join(String swarmId, String resourceId) throws IOException;
 	
+	/**
+	 * Leave a swarm, sending unavailable presence to its members.
+	 * @param swarmId
+	 * @param resourceId
+	 * @throws IOException
+	 */
+	void leave(String swarmId, String resourceId) throws IOException;
+	
 	/**
 	 * Listen to events from swarm server.
 	 * 
@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
@@ -122,7 +123,7 @@ public class SwarmSessionImp implements ISwarmSession, ISwarmMessageListener {
 	 * 
 	 * @throws IOException
 	 */
-	private void sendHeader() throws IOException {
+	private synchronized void sendHeader() throws IOException {
 		StringBuilder header = new StringBuilder();
 		
 		if (type == SessionType.PRODUCTION)
@@ -240,8 +241,15 @@ public class SwarmSessionImp implements ISwarmSession, ISwarmMessageListener {
 
 	@Override
 	public void send(Map<String, ?> payload, List<Map.Entry<String, String>> swarmAndResource) throws IOException {
-		//TODO: implement this.
-		throw new RuntimeException("Unimplemented.");
+		Map<String, Object> map = createPayloadMap(resourceId, payload);
+		List<Map<String, Object>> to = new ArrayList<Map<String, Object>>(swarmAndResource.size());
+		
+		for (Map.Entry<String, String> e : swarmAndResource)
+			to.add(toMap("swarm", e.getKey(), "resource", e.getValue()));
+		
+		map.put("to", to);
+
+		writeOut(mapper.writeValueAsString(map));
 	}
 	
 	@Override
@@ -253,8 +261,17 @@ public class SwarmSessionImp implements ISwarmSession, ISwarmMessageListener {
 		buffer.append(ps).append(CRLF);
 		//uncomment to get join messages
 		//debugOut(buffer.toString(), true);
-		soutput.write(buffer.toString().getBytes());
-		soutput.flush();
+		writeRaw(buffer.toString());
+	}
+	
+	@Override
+	public void leave(String swarmId, String resourceId) throws IOException {
+		StringBuilder buffer = new StringBuilder();
+		String ps = generateOutgoingPresenceMessage(false, swarmId);
+		
+		buffer.append(Integer.toHexString(ps.getBytes().length)).append(CRLF);
+		buffer.append(ps).append(CRLF);
+		writeRaw(buffer.toString());
 	}
 	
 	/**
@@ -315,12 +332,13 @@ public class SwarmSessionImp implements ISwarmSession, ISwarmMessageListener {
 	}
 	
 	/**
-	 * Send message to server.  Handles calculating the message length.
+	 * Send message to server.  Handles calculating the message length.  Synchronized so that the chunks of
+	 * messages sent from different threads are not interleaved.
 	 * 
 	 * @param message input message
 	 * @throws IOException on socket I/O error
 	 */
-	private void writeOut(String message) throws IOException {
+	private synchronized void writeOut(String message) throws IOException {
 		if (!isConnected() && autoreconnect) {
 			this.socket = createSocket(hostname, port);
 			sendHeader();
@@ -337,6 +355,18 @@ public class SwarmSessionImp implements ISwarmSession, ISwarmMessageListener {
 		timestamp = (new Date()).getTime();
 	}
 
+	/**
+	 * Write framed data to the server.  All writes to the socket hold the lock of the session, so that chunks written 
+	 * by different threads are not interleaved.
+	 * 
+	 * @param data one or more complete chunks
+	 * @throws IOException on socket I/O error
+	 */
+	private synchronized void writeRaw(String data) throws IOException {
+		soutput.write(data.getBytes());
+		soutput.flush();
+	}
+
 	@Override
 	public void addListener(ISwarmMessageListener listener) {		
 		listeners.add(listener);
@@ -361,8 +391,7 @@ public class SwarmSessionImp implements ISwarmSession, ISwarmMessageListener {
 			buffer.append(ps).append(CRLF);
 			//uncomment to get close messages
 			//debugOut(buffer.toString(), true);
-			soutput.write(buffer.toString().getBytes());
-			soutput.flush();
+			writeRaw(buffer.toString());
 		} catch (IOException e) {			
 		}
 		
@@ -0,0 +1,239 @@
+package com.buglabs.bug.swarm.connector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.connector.FeedScheduler.ScheduledStream;
+import com.buglabs.bug.swarm.connector.model.Feed;
+
+/**
+ * Base class for tasks that respond to feed requests.  The feed is sampled once per execution
+ * and the resulting payload is then sent to every recipient of the task, so that any number of peers
+ * subscribing to the same feed at the same rate cost one sampling and serialization per period.
+ * 
+ * When the task is a periodic stream, each recipient has an AdaptiveRate that reduces the rate the recipient
+ * receives samples at while its link is saturated.  Subclasses report delivery of samples with delivered() and dropped().
+ *
+ * @param <T> type of payload sent to recipients
+ *
+ * @author kgilmer
+ *
+ */
+public abstract class AbstractFeedResponseTask<T> implements Runnable {
+
+	protected final Feed feed;
+	protected final LogService log;
+	private final Set<FeedRecipient> recipients;
+	private final ConcurrentMap<FeedRecipient, AdaptiveRate> rates;
+	private volatile ScheduledStream stream;
+
+	/**
+	 * @param feed instance of requested feed
+	 * @param log instance of LogService
+	 */
+	protected AbstractFeedResponseTask(Feed feed, LogService log) {
+		this.feed = feed;
+		this.log = log;
+		this.recipients = new CopyOnWriteArraySet<FeedRecipient>();
+		this.rates = new ConcurrentHashMap<FeedRecipient, AdaptiveRate>();
+	}
+
+	/**
+	 * Read the current state of the feed.
+	 *
+	 * @return payload to be sent to all recipients.
+	 * @throws IOException on failure to read feed data
+	 */
+	protected abstract T sample() throws IOException;
+
+	/**
+	 * Send a sampled payload to a recipient.
+	 *
+	 * @param recipient recipient of payload
+	 * @param payload payload as returned by sample()
+	 * @throws Exception on failure to send payload
+	 */
+	protected abstract void send(FeedRecipient recipient, T payload) throws Exception;
+
+	@Override
+	public void run() {
+		List<FeedRecipient> due = new ArrayList<FeedRecipient>(recipients.size());
+		
+		for (FeedRecipient recipient : recipients) {
+			AdaptiveRate rate = getRate(recipient);
+			
+			if (rate == null || rate.tick())
+				due.add(recipient);
+		}
+		
+		if (due.isEmpty())
+			return;
+
+		T payload = null;
+		try {
+			payload = sample();
+		} catch (IOException e) {
+			log.log(LogService.LOG_ERROR, "Error occurred while getting feed data.", e);
+			return;
+		}
+
+		for (FeedRecipient recipient : due) {
+			try {
+				send(recipient, payload);
+			} catch (Exception e) {
+				log.log(LogService.LOG_ERROR, "Error occurred while sending feed " + feed.getName() + " to " + recipient, e);
+			}
+		}
+	}
+
+	/**
+	 * @param recipient recipient to add
+	 * @return true if the recipient was not already receiving the feed from this task.
+	 */
+	public boolean addRecipient(FeedRecipient recipient) {
+		return recipients.add(recipient);
+	}
+
+	/**
+	 * @param recipient recipient to remove
+	 * @return true if the recipient was receiving the feed from this task.
+	 */
+	public boolean removeRecipient(FeedRecipient recipient) {
+		rates.remove(recipient);
+		return recipients.remove(recipient);
+	}
+	
+	/**
+	 * @param recipient recipient of task
+	 * @return rate control of the recipient, or null if the task is not a periodic stream.
+	 */
+	public AdaptiveRate getRate(FeedRecipient recipient) {
+		ScheduledStream s = stream;
+		
+		if (s == null || s.getPeriod() == 0 || !recipients.contains(recipient))
+			return null;
+		
+		AdaptiveRate rate = rates.get(recipient);
+		
+		if (rate == null) {
+			rate = new AdaptiveRate(s.getPeriod());
+			AdaptiveRate existing = rates.putIfAbsent(recipient, rate);
+			
+			if (existing != null)
+				rate = existing;
+		}
+		
+		return rate;
+	}
+	
+	/**
+	 * Restore the requested rate for all recipients, for example after the connection has been re-established.
+	 */
+	public void resetRates() {
+		rates.clear();
+	}
+	
+	/**
+	 * Report that a sample has been delivered to a recipient.
+	 * 
+	 * @param recipient recipient of sample
+	 * @param latency time in milliseconds between sampling and delivery
+	 */
+	protected void delivered(FeedRecipient recipient, long latency) {
+		AdaptiveRate rate = rates.get(recipient);
+		
+		if (rate != null && rate.delivered(latency))
+			rateChanged(recipient, rate);
+	}
+	
+	/**
+	 * Report that a sample has not been delivered to a recipient.
+	 * 
+	 * @param recipient recipient of sample
+	 */
+	protected void dropped(FeedRecipient recipient) {
+		AdaptiveRate rate = rates.get(recipient);
+		
+		if (rate != null && rate.dropped())
+			rateChanged(recipient, rate);
+	}
+	
+	/**
+	 * Called when the rate a recipient receives samples at has changed.  Subclasses send the stream metadata to the recipient.
+	 * 
+	 * @param recipient recipient of stream
+	 * @param rate rate control of recipient
+	 */
+	protected void rateChanged(FeedRecipient recipient, AdaptiveRate rate) {
+		log.log(LogService.LOG_INFO, "Period of stream " + feed.getName() + " to " + recipient + " is now " + rate.getPeriod() + "ms.");
+	}
+	
+	/**
+	 * @param rate rate control of a recipient
+	 * @return stream metadata document: { "stream": { "feed": name, "requestedPeriod": ms, "period": ms } }
+	 */
+	protected Map<String, Object> getStreamInfo(AdaptiveRate rate) {
+		Map<String, Object> info = new LinkedHashMap<String, Object>();
+		info.put("feed", feed.getName());
+		info.put("requestedPeriod", rate.getRequestedPeriod());
+		info.put("period", rate.getPeriod());
+		
+		Map<String, Object> root = new HashMap<String, Object>();
+		root.put("stream", info);
+		
+		return root;
+	}
+
+	/**
+	 * @return true if at least one recipient is associated with the task.
+	 */
+	public boolean hasRecipients() {
+		return !recipients.isEmpty();
+	}
+
+	/**
+	 * @return a copy of the list of recipients.
+	 */
+	public List<FeedRecipient> getRecipients() {
+		return new ArrayList<FeedRecipient>(recipients);
+	}
+
+	/**
+	 * @return the feed this task samples.
+	 */
+	public Feed getFeed() {
+		return feed;
+	}
+
+	/**
+	 * @param stream scheduler handle of the task, used to stop the task once it has no more recipients.
+	 */
+	public void setStream(ScheduledStream stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * @return scheduler handle of the task or null if the task is not scheduled.
+	 */
+	public ScheduledStream getStream() {
+		return stream;
+	}
+
+	/**
+	 * Stop the task from being executed by the scheduler.
+	 */
+	public void cancel() {
+		if (stream != null)
+			stream.cancel();
+	}
+}
@@ -0,0 +1,122 @@
+package com.buglabs.bug.swarm.connector;
+
+/**
+ * Rate control of a stream to one recipient.  The stream ticks at the requested period, and the recipient receives every
+ * n-th tick where n is the divisor.  The divisor doubles when the link to the recipient is saturated, that is when a sample
+ * takes longer than the effective period to be delivered or is dropped before being sent.  It halves again after a number of
+ * consecutive samples are delivered in less than half the effective period.
+ *
+ * @author kgilmer
+ *
+ */
+public class AdaptiveRate {
+
+	/**
+	 * Largest divisor of the requested rate.
+	 */
+	public static final int MAX_DIVISOR = 16;
+
+	/**
+	 * Number of consecutive fast deliveries before the rate is increased.
+	 */
+	private static final int RECOVERY_SAMPLES = 5;
+
+	private final long period;
+	private int divisor = 1;
+	private int ticks = 0;
+	private int fastSamples = 0;
+
+	/**
+	 * @param period requested period in milliseconds
+	 */
+	public AdaptiveRate(long period) {
+		if (period <= 0)
+			throw new IllegalArgumentException("Period must be positive.");
+
+		this.period = period;
+	}
+
+	/**
+	 * Called once per stream period.
+	 *
+	 * @return true if a sample should be sent to the recipient on this tick.
+	 */
+	public synchronized boolean tick() {
+		if (++ticks < divisor)
+			return false;
+
+		ticks = 0;
+		return true;
+	}
+
+	/**
+	 * @param latency time in milliseconds between sampling and delivery of a sample
+	 * @return true if the effective period has changed.
+	 */
+	public synchronized boolean delivered(long latency) {
+		long effective = getPeriod();
+
+		if (latency > effective)
+			return slowDown();
+
+		if (latency < effective / 2) {
+			if (++fastSamples >= RECOVERY_SAMPLES)
+				return speedUp();
+		} else {
+			fastSamples = 0;
+		}
+
+		return false;
+	}
+
+	/**
+	 * A sample has not been delivered because a newer one replaced it or it could not be sent.
+	 *
+	 * @return true if the effective period has changed.
+	 */
+	public synchronized boolean dropped() {
+		return slowDown();
+	}
+
+	/**
+	 * @return the requested period in milliseconds.
+	 */
+	public long getRequestedPeriod() {
+		return period;
+	}
+
+	/**
+	 * @return the effective period in milliseconds.
+	 */
+	public synchronized long getPeriod() {
+		return period * divisor;
+	}
+
+	/**
+	 * @return the divisor of the requested rate.
+	 */
+	public synchronized int getDivisor() {
+		return divisor;
+	}
+
+	private boolean slowDown() {
+		fastSamples = 0;
+
+		if (divisor >= MAX_DIVISOR)
+			return false;
+
+		divisor *= 2;
+		return true;
+	}
+
+	private boolean speedUp() {
+		fastSamples = 0;
+
+		if (divisor == 1)
+			return false;
+
+		divisor /= 2;
+		ticks = 0;
+		return true;
+	}
+}
@@ -7,16 +7,23 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.jivesoftware.smack.Chat;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -29,16 +36,25 @@ import com.buglabs.bug.swarm.client.model.Configuration;
 import com.buglabs.bug.swarm.client.model.Configuration.Protocol;
 import com.buglabs.bug.swarm.client.model.SwarmModel;
 import com.buglabs.bug.swarm.client.model.UserResourceModel;
+import com.buglabs.bug.swarm.connector.FeedScheduler.ScheduledStream;
 import com.buglabs.bug.swarm.connector.model.BinaryFeed;
+import com.buglabs.bug.swarm.connector.model.DeviceCapabilities;
 import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.FeedEncoder;
 import com.buglabs.bug.swarm.connector.model.FeedRequest;
 import com.buglabs.bug.swarm.connector.model.Jid;
-import com.buglabs.bug.swarm.connector.model.ServiceFeedAdapter;
 import com.buglabs.bug.swarm.connector.osgi.Activator;
+import com.buglabs.bug.swarm.connector.osgi.FeedIndex;
 import com.buglabs.bug.swarm.connector.osgi.OSGiUtil;
-import com.buglabs.bug.swarm.connector.osgi.OSGiUtil.ServiceMatcher;
 import com.buglabs.bug.swarm.connector.osgi.OSGiUtil.ServiceVisitor;
+import com.buglabs.bug.swarm.connector.transport.ParticipationTransport;
+import com.buglabs.bug.swarm.connector.transport.SwarmTransport;
+import com.buglabs.bug.swarm.connector.xmpp.ConnectionSupervisor;
 import com.buglabs.bug.swarm.connector.xmpp.ISwarmServerRequestListener;
+import com.buglabs.bug.swarm.connector.xmpp.InboundDispatcher;
+import com.buglabs.bug.swarm.connector.xmpp.MessageBatcher;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue;
+import com.buglabs.bug.swarm.connector.xmpp.PresenceCoalescer;
 import com.buglabs.bug.swarm.connector.xmpp.SwarmXMPPClient;
 import com.buglabs.services.ws.PublicWSProvider;
 import com.buglabs.util.simplerestclient.HTTPException;
@@ -54,6 +70,27 @@ import com.buglabs.util.simplerestclient.HTTPException;
  */
 public class BUGSwarmConnector extends Thread implements ISwarmServerRequestListener, ServiceListener {
 
+	/**
+	 * Bundle context property to define the maximum number of swarms joined concurrently on startup.
+	 */
+	public static final String JOIN_CONCURRENCY_PROPERTY = "com.buglabs.bugswarm.join.concurrency";
+	
+	/**
+	 * Default number of swarms joined concurrently on startup.
+	 */
+	public static final int DEFAULT_JOIN_CONCURRENCY = 4;
+	
+	/**
+	 * Bundle context property to define the number of peers joining a swarm together above which the feed list is
+	 * broadcast to the swarm rather than sent to each peer.
+	 */
+	public static final String JOIN_BROADCAST_PROPERTY = "com.buglabs.bugswarm.presence.broadcast";
+	
+	/**
+	 * Default number of peers joining together above which the feed list is broadcast.
+	 */
+	public static final int DEFAULT_JOIN_BROADCAST = 4;
+
 	/**
 	 * Used to convert seconds to milliseconds.
 	 */
@@ -86,53 +123,135 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	 */
 	private boolean initialized = false;
 	/**
-	 * Instance of XMPP client.
+	 * Name of the transport used to communicate with swarm peers.
+	 */
+	private final String transportName;
+	/**
+	 * Transport used to communicate with swarm peers.
 	 */
-	private SwarmXMPPClient xmppClient;
+	private SwarmTransport transport;
 	
 	/**
-	 * List of all member swarms.
+	 * Swarms the device is a member of, indexed by id.
+	 */
+	private final SwarmMembership memberSwarms = new SwarmMembership();
+	/**
+	 * Minimum time in milliseconds between two refreshes of memberSwarms caused by peers joining.
+	 */
+	private long memberRefreshInterval = PresenceCoalescer.DEFAULT_WINDOW;
+	/**
+	 * Time of the last refresh of memberSwarms caused by peers joining.
+	 */
+	private final AtomicLong lastMemberRefresh = new AtomicLong();
+	/**
+	 * Duration in milliseconds of each startup phase, in order of execution.
 	 */
-	private List<SwarmModel> memberSwarms;
+	private final Map<String, Long> startupTimings = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
 	/**
-	 * Timer that manages all the active streaming feeds.
+	 * Scheduler that manages all the active streaming feeds and deferred connector work.
 	 */
-	private Timer timer = new Timer();
+	private FeedScheduler scheduler;
 	
 	/**
 	 * A lock used to filter bursts of OSGi service events and only send the BUG message when events are finished.
 	 */
 	private volatile Boolean localEventUpdate = false;
 	
+	/**
+	 * Feed names of Map services, to tell renames apart from feed updates.
+	 */
+	private final Map<ServiceReference, String> feedServiceNames = new ConcurrentHashMap<ServiceReference, String>();
+	
 	private static ObjectMapper mapper = new ObjectMapper();
 	/**
-	 * A Map of active "streaming" feeds.  These feeds are running as TimerTasks in a Timer 
-	 * and sending response messages to the swarm server at regular intervals.
+	 * Encodes the feed updates broadcast to member swarms.
+	 */
+	private final FeedEncoder feedEncoder = new FeedEncoder();
+	/**
+	 * Versioned feeds and modules of the device, used to send changes to member swarms as deltas.
+	 */
+	private final DeviceCapabilities capabilities = new DeviceCapabilities();
+	/**
+	 * Serialized capabilities document, or null if it must be rebuilt.  Only used while service events are received,
+	 * as the events are what invalidates it.
+	 */
+	private volatile String capabilitiesDocument;
+	/**
+	 * Incremented each time capabilitiesDocument is invalidated, so that a document built concurrently with a change is not cached.
+	 */
+	private final AtomicLong capabilitiesGeneration = new AtomicLong();
+	private volatile boolean listeningForServices = false;
+	private final AtomicLong capabilitiesHits = new AtomicLong();
+	private final AtomicLong capabilitiesMisses = new AtomicLong();
+	/**
+	 * Registry of active "streaming" feeds.  These feeds are running as streams in the FeedScheduler 
+	 * and sending response messages to the swarm server at regular intervals.  Value is the task that serves 
+	 * the subscription.
+	 */
+	private final StreamRegistry<AbstractFeedResponseTask<?>> activeTasks = new StreamRegistry<AbstractFeedResponseTask<?>>();
+	
+	/**
+	 * Tasks that sample a feed at a given period, keyed by feed name and period.  Subscriptions to the same feed at 
+	 * the same period share a task, so the feed is sampled and serialized once per period regardless of the number of recipients.
 	 */
-	private Map<String, TimerTask> activeTasks;
+	private final Map<String, AbstractFeedResponseTask<?>> feedStreams = new HashMap<String, AbstractFeedResponseTask<?>>();
+	
+	/**
+	 * Push streams that send a feed when it changes, keyed like feedStreams.
+	 */
+	private final Map<String, OnChangeFeedStream> changeStreams = new HashMap<String, OnChangeFeedStream>();
+	
+	/**
+	 * Guards changes to activeTasks, feedStreams and changeStreams that must be applied together.
+	 */
+	private final Object streamLock = new Object();
 
 	/**
-	 * List of feed names that should not be exported from device.
+	 * Set of feed names that should not be exported from device.
 	 */
-	private List<String> blacklist;
+	private final Set<String> blacklist = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 	private static LogService log;
 
 	private final BundleContext context;	
+	/**
+	 * Index of the feeds available on the device by name.
+	 */
+	private final FeedIndex feedIndex;
 
 	/**
 	 * @param config
 	 *            Predefined configuration
 	 */
 	public BUGSwarmConnector(BundleContext context, final Configuration config) {
-		if (context == null || config == null)
+		this(context, config, SwarmTransport.XMPP);
+	}
+	
+	/**
+	 * @param config
+	 *            Predefined configuration
+	 * @param transportName
+	 *            name of the transport to use, SwarmTransport.XMPP or SwarmTransport.PARTICIPATION
+	 */
+	public BUGSwarmConnector(BundleContext context, final Configuration config, String transportName) {
+		if (context == null || config == null || transportName == null)
 			throw new IllegalArgumentException("A constructor input parameter is null.");
 		
+		if (!transportName.equals(SwarmTransport.XMPP) && !transportName.equals(SwarmTransport.PARTICIPATION))
+			throw new IllegalArgumentException("Unknown transport " + transportName);
+		
 		this.context = context;
 		this.config = config;
+		this.transportName = transportName;
 		BUGSwarmConnector.log = Activator.getLog();
-		this.memberSwarms = new ArrayList<SwarmModel>();
 		if (!config.isValid())
 			throw new IllegalArgumentException("Invalid configuration");
+		
+		this.scheduler = new FeedScheduler(
+				OSGiUtil.getProperty(context, FeedScheduler.WORKER_COUNT_PROPERTY, FeedScheduler.DEFAULT_WORKER_COUNT),
+				OSGiUtil.getProperty(context, FeedScheduler.QUEUE_SIZE_PROPERTY, FeedScheduler.DEFAULT_QUEUE_SIZE),
+				log);
+		this.feedIndex = new FeedIndex(context);
+		feedIndex.open();
 	}
 
 	@Override
@@ -146,36 +265,120 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 			log.log(LogService.LOG_DEBUG, "Getting member swarms.");
 
 			try {
+				long start = System.currentTimeMillis();
 				List<SwarmModel> allSwarms = wsClient.getSwarmResourceClient().getSwarmsByMember(config.getResource());
+				startupTimings.put("member swarms", System.currentTimeMillis() - start);
 
 				if (allSwarms == null || allSwarms.size() == 0) {
 					log.log(LogService.LOG_INFO, "User does not belong to any swarms.");
 				} else {
-					String capabilities = getCapabilities();
-					// Notify all swarms of presence.
-					for (SwarmModel swarm : allSwarms) {
-						log.log(LogService.LOG_DEBUG, "Joining swarm " + swarm.getId());
-						
-						xmppClient.joinSwarm(swarm.getId(), this);
-						memberSwarms.add(swarm);
-						xmppClient.sendPublicMessage(swarm.getId(), capabilities);
-					}								
+					start = System.currentTimeMillis();
+					joinSwarms(allSwarms, getCapabilities());
+					startupTimings.put("joins", System.currentTimeMillis() - start);
 				}
 				
 				//After we broadcast Feeds to all swarms, listen for local service changes so that updates can be sent.
 				context.addServiceListener(this);
+				listeningForServices = true;
+				invalidateCapabilities();
 			} catch (HTTPException e) {
 				if (e.getErrorCode() == HTTP_404)
 					log.log(LogService.LOG_WARNING, "Not a member of any swarms, not publishing feeds.");
 				else
 					throw e;
 			}
-			log.log(LogService.LOG_INFO, "Connector initialization complete.");
+			log.log(LogService.LOG_INFO, "Connector initialization complete.  Startup timings (ms): " + getStartupTimings());
 		} catch (Exception e) {
 			log.log(LogService.LOG_ERROR, "Error occurred while initializing swarm client.", e);
 		}
 	}
 	
+	/**
+	 * Join swarms concurrently, announcing the device capabilities in each swarm as soon as it has been joined.  At most
+	 * JOIN_CONCURRENCY_PROPERTY swarms are joined at the same time.  Returns once all joins have completed or failed.
+	 * 
+	 * @param swarms swarms to join
+	 * @param capabilities capabilities document
+	 * @throws InterruptedException if interrupted while waiting for joins to complete
+	 */
+	private void joinSwarms(List<SwarmModel> swarms, final String capabilities) throws InterruptedException {
+		int concurrency = Math.min(swarms.size(), 
+				Math.max(1, OSGiUtil.getProperty(context, JOIN_CONCURRENCY_PROPERTY, DEFAULT_JOIN_CONCURRENCY)));
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency, new FeedScheduler.NamedThreadFactory("bugswarm-join"));
+		List<Callable<Object>> joins = new ArrayList<Callable<Object>>();
+		
+		for (final SwarmModel swarm : swarms) {
+			joins.add(Executors.callable(new Runnable() {
+				
+				@Override
+				public void run() {
+					try {
+						log.log(LogService.LOG_DEBUG, "Joining swarm " + swarm.getId());
+						long start = System.currentTimeMillis();
+						
+						transport.joinSwarm(swarm.getId(), BUGSwarmConnector.this);
+						setBatchWindow(swarm.getId());
+						memberSwarms.add(swarm);
+						transport.sendPublicMessage(swarm.getId(), capabilities);
+						
+						log.log(LogService.LOG_DEBUG, "Joined swarm " + swarm.getId() + " in " + (System.currentTimeMillis() - start) + "ms.");
+					} catch (Exception e) {
+						log.log(LogService.LOG_ERROR, "Error occurred while joining swarm " + swarm.getId(), e);
+					}
+				}
+			}));
+		}
+		
+		try {
+			executor.invokeAll(joins);
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	/**
+	 * Set the batching window of feed responses in a swarm from the bundle context properties.
+	 * 
+	 * @param swarmId id of joined swarm
+	 */
+	private void setBatchWindow(String swarmId) {
+		long window = OSGiUtil.getProperty(context, MessageBatcher.WINDOW_PROPERTY + "." + swarmId, 
+				OSGiUtil.getProperty(context, MessageBatcher.WINDOW_PROPERTY, 0L));
+		
+		transport.setBatchWindow(swarmId, null, window);
+	}
+	
+	/**
+	 * Called once the XMPP connection has been re-established and the swarms rejoined.  Streams were kept 
+	 * running while disconnected, so they resume as soon as the connection is back.  Their rates are reset as samples 
+	 * have been failing during the outage, and the capabilities are announced again.
+	 */
+	private void restoreSwarmState() {
+		Map<StreamRegistry.Key, AbstractFeedResponseTask<?>> streams = activeTasks.snapshot();
+		for (AbstractFeedResponseTask<?> task : streams.values())
+			task.resetRates();
+		
+		try {
+			String document = getCapabilities();
+			
+			for (SwarmModel swarm : memberSwarms.getSwarms())
+				transport.sendPublicMessage(swarm.getId(), document);
+		} catch (Exception e) {
+			log.log(LogService.LOG_ERROR, "Error occurred while sending capabilities to member swarms.", e);
+		}
+		
+		log.log(LogService.LOG_INFO, "Restored " + streams.size() + " streams after reconnection.");
+	}
+	
+	/**
+	 * @return Duration in milliseconds of each startup phase (resource, xmpp login, member swarms, joins) that has completed.
+	 */
+	public Map<String, Long> getStartupTimings() {
+		synchronized (startupTimings) {
+			return new LinkedHashMap<String, Long>(startupTimings);
+		}
+	}
+	
 	/**
 	 * Initialize the connection to the swarm server.
 	 * 
@@ -188,6 +391,7 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 				config.getHostname(Protocol.HTTP), config.getConfingurationAPIKey());
 		
 		UserResourceModel resource = null;
+		long start = System.currentTimeMillis();
 		if (config.hasResource()) {
 			Activator.getLog().log(LogService.LOG_DEBUG, "Using stored resource id: " + config.getResource());
 			resource = wsClient.getUserResourceClient().get(
@@ -211,9 +415,37 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 			Activator.setResourceId(null);
 			throw new IOException("Unable to get or create resource for device.");
 		}
+		startupTimings.put("resource", System.currentTimeMillis() - start);
+		
+		start = System.currentTimeMillis();
+		int queueCapacity = OSGiUtil.getProperty(context, OutboundMessageQueue.CAPACITY_PROPERTY, OutboundMessageQueue.DEFAULT_CAPACITY);
+		int streamLimit = OSGiUtil.getProperty(context, OutboundMessageQueue.STREAM_LIMIT_PROPERTY, OutboundMessageQueue.DEFAULT_STREAM_LIMIT);
+		
+		InboundDispatcher dispatcher = new InboundDispatcher(
+				OSGiUtil.getProperty(context, InboundDispatcher.WORKER_COUNT_PROPERTY, InboundDispatcher.DEFAULT_WORKER_COUNT),
+				OSGiUtil.getProperty(context, InboundDispatcher.QUEUE_SIZE_PROPERTY, InboundDispatcher.DEFAULT_QUEUE_SIZE));
 		
-		xmppClient = new SwarmXMPPClient(config);
-		xmppClient.connect(this);
+		if (transportName.equals(SwarmTransport.PARTICIPATION))
+			transport = new ParticipationTransport(config, queueCapacity, streamLimit, dispatcher);
+		else
+			transport = new SwarmXMPPClient(config, queueCapacity, streamLimit, dispatcher);
+		
+		memberRefreshInterval = OSGiUtil.getProperty(context, PresenceCoalescer.WINDOW_PROPERTY, PresenceCoalescer.DEFAULT_WINDOW);
+		
+		if (transport instanceof SwarmXMPPClient)
+			((SwarmXMPPClient) transport).getPresenceCoalescer().setWindow(memberRefreshInterval);
+		else if (transport instanceof ParticipationTransport)
+			((ParticipationTransport) transport).getPresenceCoalescer().setWindow(memberRefreshInterval);
+		
+		transport.connect(this);
+		transport.addReconnectListener(new ConnectionSupervisor.ReconnectListener() {
+			
+			@Override
+			public void reconnected() {
+				restoreSwarmState();
+			}
+		});
+		startupTimings.put(transportName + " login", System.currentTimeMillis() - start);
 						
 		initialized = true;
 		return true;		
@@ -228,10 +460,10 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	
 	/**
 	 * @return Immutable list of swarms that client is a member of, for
-	 *         read-only purposes.
+	 *         read-only purposes.  Later membership changes are not reflected.
 	 */
 	public List<SwarmModel> getMemberSwarms() {
-		return Collections.unmodifiableList(memberSwarms);
+		return memberSwarms.getSwarms();
 	}
 
 	/**
@@ -239,17 +471,25 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	 */
 	public void shutdown() {
 		context.removeServiceListener(this);
+		listeningForServices = false;
+		invalidateCapabilities();
 		
-		if (timer != null) {
-			timer.cancel();
-			timer = null;
+		synchronized (streamLock) {
+			releaseStreams(activeTasks.clear());
+		}
+		
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler = null;
 		}		
+		
+		feedIndex.close();
 			
-		if (xmppClient != null) {
-			for (SwarmModel sm : memberSwarms)
-				xmppClient.leaveSwarm(sm.getId());
+		if (transport != null) {
+			for (SwarmModel sm : memberSwarms.getSwarms())
+				transport.leaveSwarm(sm.getId());
 			// Send unpresence and disconnect from server
-			xmppClient.disconnect();
+			transport.disconnect();
 		}		
 		
 		log.log(LogService.LOG_INFO, "Connector shutdown complete.");
@@ -260,29 +500,159 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 		try {
 			String document = getCapabilities();
 		
-			xmppClient.sendAllFeedsToUser(requestJid, swarmId, document);
+			transport.sendPrivateMessage(swarmId, requestJid.toString(), document);
 		} catch (Exception e) {
 			log.log(LogService.LOG_ERROR, "Error occurred while sending feeds to " + requestJid, e);
 		} 
 	}
 
 	/**
-	 * @return A JSon string of the Capabilities message
+	 * @return A JSon string of the complete, versioned Capabilities message
 	 * 
 	 * @throws JsonGenerationException on Json parsing error
 	 * @throws JsonMappingException on Json parsing error
 	 * @throws IOException on Json parsing error
 	 */
 	private String getCapabilities() throws JsonGenerationException, JsonMappingException, IOException {
-		Map<String, Object> root = new HashMap<String, Object>();
-		Map<String, Object> c = new HashMap<String, Object>();
+		String document = capabilitiesDocument;
+		
+		if (document != null) {
+			capabilitiesHits.incrementAndGet();
+			return document;
+		}
+		
+		capabilitiesMisses.incrementAndGet();
+		long generation = capabilitiesGeneration.get();
+		
+		updateCapabilities();
+		document = mapper.writeValueAsString(capabilities.getDocument());
+		
+		synchronized (capabilitiesGeneration) {
+			if (listeningForServices && generation == capabilitiesGeneration.get())
+				capabilitiesDocument = document;
+		}
+			
+		return document;
+	}
+	
+	/**
+	 * Discard the cached capabilities document so that it is rebuilt on next use.
+	 */
+	private void invalidateCapabilities() {
+		synchronized (capabilitiesGeneration) {
+			capabilitiesGeneration.incrementAndGet();
+			capabilitiesDocument = null;
+		}
+	}
+	
+	/**
+	 * Discard the cached capabilities document and send the delta to member swarms.  A lock is used to only send one event every 
+	 * LOCAL_CHANGE_DELAY_MILLIS to the server.  A scheduled task is used to update the swarm peers after the interval, and only one 
+	 * task is created within LOCAL_CHANGE_DELAY_MILLIS.
+	 */
+	private void capabilitiesChanged() {
+		invalidateCapabilities();
+		
+		synchronized (localEventUpdate) {
+			if (!localEventUpdate && scheduler != null) {
+				localEventUpdate = true;
+			
+				scheduler.scheduleOnce("capabilities update", new Runnable() {
+					
+					@Override
+					public void run() {
+						try {
+							updateCapabilities();
+						} catch (Exception e) {
+							Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while sending capabilities to member swarms.", e);
+						} finally {
+							localEventUpdate = false;
+						}
+					}
+				}, LOCAL_CHANGE_DELAY_MILLIS);
+			}
+		}
+	}
+	
+	/**
+	 * Record the feed name of a Map service.  Web services and modules are always considered changed, as they are 
+	 * only modified when their description changes.
+	 * 
+	 * @param sr reference of a capabilities service that was registered or modified
+	 * @return true if the feed list of the device may have changed.
+	 */
+	private boolean isFeedListChange(ServiceReference sr) {
+		String[] classes = (String[]) sr.getProperty(Constants.OBJECTCLASS);
+		
+		for (String c : classes)
+			if (c.equals(PublicWSProvider.class.getName()) || c.equals(IModuleControl.class.getName()))
+				return true;
+		
+		Object property = sr.getProperty(Feed.FEED_SERVICE_NAME_PROPERTY);
+		String name = property == null ? null : property.toString();
+		String previous = name == null ? feedServiceNames.remove(sr) : feedServiceNames.put(sr, name);
 		
-		c.put("feeds", getFeedNames());
-		c.put("modules", getModuleMap());
+		return name == null ? previous != null : !name.equals(previous);
+	}
+	
+	/**
+	 * @param sr reference of a service that changed
+	 * @return true if the service contributes to the capabilities document.
+	 */
+	private static boolean isCapabilitiesService(ServiceReference sr) {
+		String[] classes = (String[]) sr.getProperty(Constants.OBJECTCLASS);
 		
-		root.put("capabilities", c);
+		if (classes == null)
+			return false;
+		
+		for (String c : classes)
+			if (c.equals(Map.class.getName()) || c.equals(PublicWSProvider.class.getName()) || c.equals(IModuleControl.class.getName()))
+				return true;
+		
+		return false;
+	}
+	
+	/**
+	 * @return number of capabilities requests served from the cached document.
+	 */
+	public long getCapabilitiesCacheHits() {
+		return capabilitiesHits.get();
+	}
+	
+	/**
+	 * @return number of capabilities requests that required the document to be rebuilt.
+	 */
+	public long getCapabilitiesCacheMisses() {
+		return capabilitiesMisses.get();
+	}
+	
+	/**
+	 * Read the current feeds and modules of the device.  If they changed since the last version, the delta is sent to all member swarms.
+	 * Deltas are sent in version order so that peers can apply them incrementally.
+	 * 
+	 * @throws JsonGenerationException on Json parsing error
+	 * @throws JsonMappingException on Json parsing error
+	 * @throws IOException on Json parsing error
+	 */
+	private void updateCapabilities() throws JsonGenerationException, JsonMappingException, IOException {
+		synchronized (capabilities) {
+			Map<String, Object> delta = capabilities.update(getFeedNames(), getModuleMap());
+			
+			if (delta == null || transport == null)
+				return;
 			
-		return mapper.writeValueAsString(root);
+			String message = mapper.writeValueAsString(delta);
+			
+			for (SwarmModel swarm : memberSwarms.getSwarms()) {
+				try {
+					transport.sendPublicMessage(swarm.getId(), message);
+				} catch (Exception e) {
+					log.log(LogService.LOG_ERROR, "Error occurred while sending capabilities to swarm " + swarm.getId(), e);
+				}
+			}
+			
+			log.log(LogService.LOG_DEBUG, "Sent capabilities version " + capabilities.getVersion() + " to member swarms.");
+		}
 	}
 
 	/**
@@ -353,81 +723,183 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	public boolean isInitialized() {
 		return initialized;
 	}
+	
+	/**
+	 * @return scheduler of streaming feeds, or null if the connector has been shutdown.
+	 */
+	public FeedScheduler getFeedScheduler() {
+		return scheduler;
+	}
 
 	@Override
 	public void feedRequest(final Jid jid, final String swarmId, final FeedRequest feedRequest) {
-		Feed feed = getBUGFeed(context, feedRequest.getName());
+		if (blacklist.contains(feedRequest.getName())) {
+			log.log(LogService.LOG_INFO, "Request for disabled feed " + feedRequest.getName() + " from client " + jid + " ignored.");
+			return;
+		}
+		
+		Feed feed = feedIndex.getFeed(feedRequest.getName());
 		
 		if (feed == null) {			
 			log.log(LogService.LOG_WARNING, "Request for non-existant feed " + feedRequest.getName() + " from client " + jid);
 			return;
 		}
 			
-		TimerTask task = null;
+		FeedRecipient recipient = new FeedRecipient(jid, swarmId, feedRequest.getEncoding());
 		
-		if (feed instanceof BinaryFeed) {
-			task = new BinaryFeedResponseTask(wsClient, jid, swarmId, (BinaryFeed) feed, log);
-		} else {
-			task = new FeedResponseTask(xmppClient, jid, swarmId, feed, log);
+		if (feedRequest.getBatchWindow() > 0)
+			transport.setBatchWindow(swarmId, jid, feedRequest.getBatchWindow());
+		
+		if (feedRequest.isOnChange() && addOnChangeStream(jid, swarmId, feed, feedRequest))
+			return;
+		
+		if (feedRequest.hasFrequency()) {
+			long period = feedRequest.getFrequency() * MILLIS_IN_SECONDS;
+			String streamKey = feed.getName() + "@" + period;
+			StreamRegistry.Key key = new StreamRegistry.Key(swarmId, jid, feed.getName());
+			
+			synchronized (streamLock) {
+				if (!activeTasks.contains(key)) {
+					AbstractFeedResponseTask<?> task = feedStreams.get(streamKey);
+					if (task == null) {
+						task = createResponseTask(feed);
+						task.addRecipient(recipient);
+						task.setStream(scheduler.schedule(streamKey, task, period));
+						feedStreams.put(streamKey, task);
+					} else {
+						//Another peer already streams this feed at this rate, share its samples.
+						task.addRecipient(recipient);
+					}
+					
+					activeTasks.add(key, task);
+					return;
+				}
+			}
 		}
 		
-		if (feedRequest.hasFrequency() && !containsActiveTask(jid, swarmId, feed)) {
-			if (activeTasks == null) 
-				activeTasks = new HashMap<String, TimerTask>();
+		AbstractFeedResponseTask<?> task = createResponseTask(feed);
+		task.addRecipient(recipient);
+		scheduler.execute(feed.getName() + " to " + jid, task);
+	}
+	
+	/**
+	 * Subscribe a peer to a push stream of a feed.  Peers requesting the same feed with the same intervals share a stream.
+	 * 
+	 * @param jid jid of recipient
+	 * @param swarmId id of swarm
+	 * @param feed requested feed
+	 * @param feedRequest request with onchange mode
+	 * @return true if the current state of the feed has been sent to the recipient, false if the recipient still needs it.
+	 */
+	private boolean addOnChangeStream(Jid jid, String swarmId, Feed feed, FeedRequest feedRequest) {
+		long minInterval = feedRequest.getMinInterval() * MILLIS_IN_SECONDS;
+		long maxInterval = feedRequest.getMaxInterval() * MILLIS_IN_SECONDS;
+		String streamKey = feed.getName() + "~" + minInterval + "/" + maxInterval;
+		StreamRegistry.Key key = new StreamRegistry.Key(swarmId, jid, feed.getName());
+		OnChangeFeedStream stream = null;
+		
+		synchronized (streamLock) {
+			if (activeTasks.contains(key))
+				return false;
 			
-			//TODO: this is not matching up with the blacklist
-			activeTasks.put(jid.toString() + swarmId + feed.getName(), task);
+			AbstractFeedResponseTask<?> task = feedStreams.get(streamKey);
+			if (task == null) {
+				task = createResponseTask(feed);
+				stream = new OnChangeFeedStream(streamKey, task, scheduler, minInterval, maxInterval);
+				feedStreams.put(streamKey, task);
+				changeStreams.put(streamKey, stream);
+			}
 			
-			timer.schedule(task, 0, feedRequest.getFrequency() * MILLIS_IN_SECONDS);
-		} else {		
-			timer.schedule(task, 0);
+			task.addRecipient(new FeedRecipient(jid, swarmId, feedRequest.getEncoding()));
+			activeTasks.add(key, task);
 		}
+		
+		if (stream == null)
+			return false;
+		
+		stream.start();
+		return true;
 	}
-
+	
 	/**
-	 * This method will search for native and service feeds.
+	 * Notify the push streams of a feed that the feed has changed.
 	 * 
-	 * @param name name of feed.
-	 * @return Feed of type name or null if feed does not exist.
+	 * @param feedName name of changed feed
 	 */
-	public static Feed getBUGFeed(BundleContext context, final String name) {
-		//Look for native feed that matches feed name.
-		Map feed = (Map) OSGiUtil.getServiceInstance(
-				context, Map.class.getName(), 
-				OSGiUtil.createFilter(Feed.FEED_SERVICE_NAME_PROPERTY, name));
+	private void feedChanged(String feedName) {
+		List<OnChangeFeedStream> streams = new ArrayList<OnChangeFeedStream>();
 		
-		if (feed != null)
-			return new Feed(name, feed);
+		synchronized (streamLock) {
+			for (OnChangeFeedStream stream : changeStreams.values())
+				if (stream.getTask().getFeed().getName().equals(feedName))
+					streams.add(stream);
+		}
 		
-		//Look for web service that matches the feed name.
-		PublicWSProvider webService = 
-				OSGiUtil.getServiceInstance(context, PublicWSProvider.class.getName(), null, new ServiceMatcher<PublicWSProvider>() {
-
-					@Override
-					public boolean match(ServiceReference sr, PublicWSProvider service) {						
-						return service.getPublicName().equals(name);
-					}
-			
-		});		
+		for (OnChangeFeedStream stream : streams)
+			stream.changed();
+	}
+	
+	/**
+	 * @param feed feed to respond with
+	 * @return a task, without recipients, that sends the feed.
+	 */
+	private AbstractFeedResponseTask<?> createResponseTask(Feed feed) {
+		if (feed instanceof BinaryFeed) 
+			return new BinaryFeedResponseTask(wsClient, (BinaryFeed) feed, log);
 		
-		if (webService != null)
-			return new ServiceFeedAdapter(webService);
-			
+		return new FeedResponseTask(transport, feed, log);
+	}
+	
+	/**
+	 * Remove the recipients of streams that have been removed from the registry.  A task is stopped when its last 
+	 * recipient is removed.  Caller must hold streamLock.
+	 * 
+	 * @param streams streams removed from activeTasks
+	 */
+	private void releaseStreams(Map<StreamRegistry.Key, AbstractFeedResponseTask<?>> streams) {
+		for (Map.Entry<StreamRegistry.Key, AbstractFeedResponseTask<?>> e : streams.entrySet())
+			releaseStream(e.getValue(), new FeedRecipient(e.getKey().getPeer(), e.getKey().getSwarmId()));
+	}
+	
+	/**
+	 * Remove a recipient from a streaming task.  The task is stopped when its last recipient is removed.  
+	 * Caller must hold streamLock.
+	 * 
+	 * @param task streaming task
+	 * @param recipient recipient to remove
+	 */
+	private void releaseStream(AbstractFeedResponseTask<?> task, FeedRecipient recipient) {
+		task.removeRecipient(recipient);
 		
-		return null;
+		if (!task.hasRecipients()) {
+			task.cancel();
+			
+			if (task.getStream() != null)
+				feedStreams.remove(task.getStream().getName());
+			
+			for (Iterator<Map.Entry<String, OnChangeFeedStream>> i = changeStreams.entrySet().iterator(); i.hasNext();) {
+				Map.Entry<String, OnChangeFeedStream> e = i.next();
+				
+				if (e.getValue().getTask() == task) {
+					e.getValue().cancel();
+					feedStreams.remove(e.getKey());
+					i.remove();
+				}
+			}
+		}
 	}
 
 	/**
-	 * @param jid jid of recipient
-	 * @param swarmId id of swarm
-	 * @param feed feed instance
-	 * @return true if there is an active task corresponding to jid, swarm, and feed, false otherwise.
+	 * @return A copy of the active streaming feeds and the scheduler stream that serves each of them.  The scheduler stream 
+	 * provides execution and lag statistics and may be shared by several subscriptions.
 	 */
-	private boolean containsActiveTask(Jid jid, String swarmId, Feed feed) {
-		if (activeTasks == null)
-			return false;
+	public Map<StreamRegistry.Key, ScheduledStream> getActiveStreams() {
+		Map<StreamRegistry.Key, ScheduledStream> streams = new HashMap<StreamRegistry.Key, ScheduledStream>();
 		
-		return activeTasks.containsKey(jid.toString() + swarmId + feed.getName());
+		for (Map.Entry<StreamRegistry.Key, AbstractFeedResponseTask<?>> e : activeTasks.snapshot().entrySet())
+			streams.put(e.getKey(), e.getValue().getStream());
+		
+		return streams;
 	}
 
 	@Override
@@ -440,7 +912,8 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 		log.log(LogService.LOG_DEBUG, "Recieved invitation for room " + swarmId + " from " + sender.toString());
 
 		try {
-			xmppClient.joinSwarm(swarmId, BUGSwarmConnector.this);
+			transport.joinSwarm(swarmId, BUGSwarmConnector.this);
+			setBatchWindow(swarmId);
 			SwarmModel swarmModel = wsClient.get(swarmId);
 			memberSwarms.add(swarmModel);
 			log.log(LogService.LOG_DEBUG, "Joined swarm " + swarmId);
@@ -455,12 +928,7 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	 * @return true if swarm is in set of memberSwarms, false otherwise.
 	 */
 	private boolean memberOfSwarm(final String swarmId) {
-		// Linear search through active member swarms.
-		for (SwarmModel sm : memberSwarms)
-			if (sm.getId().equals(swarmId))
-				return true;
-
-		return false;
+		return memberSwarms.contains(swarmId);
 	}
 
 	@Override
@@ -470,25 +938,22 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 			boolean feedEnabled = !request.getParams().get("status").toString().equalsIgnoreCase("off");
 			
 			if (feedEnabled) {
-				if (blacklist != null) {
-					blacklist.remove(request.getName());
+				if (blacklist.remove(request.getName()))
 					log.log(LogService.LOG_INFO, "Removed " + request.getName() 
 							+ " from blacklist on swarm: " + swarmId);
-				}
 			} else {
-				if (blacklist == null)
-					blacklist = new ArrayList<String>();
-				
 				blacklist.add(request.getName());
 				log.log(LogService.LOG_INFO, "Added " + request.getName() + " from blacklist on swarm: " + swarmId);
 				
-				//TODO: fix this, they do not match
-				if (activeTasks.containsKey(request.getName())) {
-					TimerTask task = activeTasks.get(request.getName());
-					task.cancel();
-					log.log(LogService.LOG_INFO, "Cancelled streaming feed " 
-							+ request.getName() + " from due to server request on swarm: " + swarmId);
+				Map<StreamRegistry.Key, AbstractFeedResponseTask<?>> removed;
+				synchronized (streamLock) {
+					removed = activeTasks.removeByFeed(request.getName());
+					releaseStreams(removed);
 				}
+				
+				if (!removed.isEmpty())
+					log.log(LogService.LOG_INFO, "Cancelled " + removed.size() + " streams of feed " 
+							+ request.getName() + " from due to server request on swarm: " + swarmId);
 			}
 			
 			return;
@@ -498,23 +963,32 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 		
 	}
 
+	@Override
+	public void swarmLeft(String swarmId) {
+		Map<StreamRegistry.Key, AbstractFeedResponseTask<?>> removed;
+		
+		synchronized (streamLock) {
+			removed = activeTasks.removeBySwarm(swarmId);
+			releaseStreams(removed);
+		}
+		
+		memberSwarms.remove(swarmId);
+		log.log(LogService.LOG_INFO, "Left swarm " + swarmId + ", cancelled " + removed.size() + " active tasks.");
+	}
+
 	@Override
 	public void cancelFeedRequests(Jid jid, String swarmId) {
-		xmppClient.clearChatCache(jid.getResource());
+		transport.peerLeft(jid, swarmId);
 		
-		if (activeTasks == null)
-			return;
+		Map<StreamRegistry.Key, AbstractFeedResponseTask<?>> removed;
 		
-		boolean cancelled = false;
-		//Cancel any tasks associated within a specific swarm to a specific resource.
-		for (String taskKey : activeTasks.keySet()) {
-			if (taskKey.contains(jid.getResource()) && taskKey.contains(jid.getUsername())) {
-				activeTasks.get(taskKey).cancel();		
-				cancelled = true;
-			}
+		//Cancel any tasks associated with a specific resource.
+		synchronized (streamLock) {
+			removed = activeTasks.removeByPeer(jid);
+			releaseStreams(removed);
 		}
 		
-		if (cancelled)
+		if (!removed.isEmpty())
 			log.log(LogService.LOG_INFO, 
 					"Cancelled active tasks for : " + jid.toString() + " in swarm " + swarmId);
 	}
@@ -526,56 +1000,44 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	 */
 	@Override
 	public void serviceChanged(ServiceEvent event) {
-		// For now, every time a service, module, or feed is created/removed, send
-		// the entire state to each member swarm.
+		// Every time a service, module, or feed is created/removed, send
+		// the changes to each member swarm.
 		
 		try {
 			switch(event.getType()) {
 			case ServiceEvent.REGISTERED:
-				// A feed has been added.  Send the complete set of feeds to all member swarms.
+				// A feed has been added.  Send the added feeds to all member swarms.
 			case ServiceEvent.UNREGISTERING:
-				// A feed has been removed.  Send the complete set of feeds to all member swarms.		
+				// A feed has been removed.  Send the removed feeds to all member swarms.		
+				if (!isCapabilitiesService(event.getServiceReference()))
+					break;
 				
-				// A lock is used to only send one event every LOCAL_CHANGE_DELAY_MILLIS to the server.  A TimerTask is used to update
-				// the swarm peers after the interval, and only one task is created within LOCAL_CHANGE_DELAY_MILLIS.
-				synchronized (localEventUpdate) {
-					if (!localEventUpdate && timer != null) {
-						localEventUpdate = true;
-					
-						timer.schedule(new TimerTask() {
-							
-							@Override
-							public void run() {
-								try {
-									String capabilities = getCapabilities();
-									
-									for (SwarmModel swarm : memberSwarms) 	
-										xmppClient.sendPublicMessage(swarm.getId(), capabilities);		
-								} catch (Exception e) {
-									Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while sending capabilities to member swarms.", e);
-								} finally {
-									localEventUpdate = false;
-								}
-							}
-						}, LOCAL_CHANGE_DELAY_MILLIS);
-					}
-				}						
+				if (event.getType() == ServiceEvent.UNREGISTERING)
+					feedServiceNames.remove(event.getServiceReference());
+				else
+					isFeedListChange(event.getServiceReference());
 				
+				capabilitiesChanged();
 				break;	
 			case ServiceEvent.MODIFIED:
+				// A feed may have been named or renamed.  Feed content updates also modify the service, and do not change the capabilities.
+				if (isCapabilitiesService(event.getServiceReference()) && isFeedListChange(event.getServiceReference()))
+					capabilitiesChanged();
+				
+				if (event.getServiceReference().getProperty(Feed.FEED_SERVICE_NAME_PROPERTY) != null)
+					feedChanged(event.getServiceReference().getProperty(Feed.FEED_SERVICE_NAME_PROPERTY).toString());
+				
 				try {
 					Feed feed = Feed.createForType(event.getServiceReference());
 					
 					if (feed != null) {							
-						String message = mapper.writeValueAsString(feed);
+						String message = feedEncoder.encode(feed);
 						
-						for (SwarmModel swarm : memberSwarms) 	
-							xmppClient.sendPublicMessage(swarm.getId(), message);		
+						for (SwarmModel swarm : memberSwarms.getSwarms()) 	
+							transport.sendPublicFeed(swarm.getId(), message, feed.getName());		
 					}
 				} catch (Exception e) {
 					Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while sending feed update to member swarms.", e);
-				} finally {
-					localEventUpdate = false;
 				}
 				break;
 			default:
@@ -586,17 +1048,43 @@ public class BUGSwarmConnector extends Thread implements ISwarmServerRequestList
 	}
 
 	@Override
-	public void addMemberSwarm(String swarmId) {
-		boolean member = false;
-		for (SwarmModel sm : memberSwarms)
-			if (sm.getId().equals(swarmId)) {
-				member = true;
-				break;
-			}
+	public void membersJoined(String swarmId, List<Jid> members) {
+		addMemberSwarm(swarmId);
 		
-		if (!member) {
+		try {
+			String document = getCapabilities();
+			
+			if (members.size() > OSGiUtil.getProperty(context, JOIN_BROADCAST_PROPERTY, DEFAULT_JOIN_BROADCAST)) {
+				log.log(LogService.LOG_INFO, "Sending feed list to " + members.size() + " new members of swarm " + swarmId);
+				transport.sendPublicMessage(swarmId, document);
+			} else {
+				for (Jid member : members) {
+					log.log(LogService.LOG_INFO, "Sending feed list to new swarm member " + member);
+					transport.sendPrivateMessage(swarmId, member.toString(), document);
+				}
+			}
+		} catch (Exception e) {
+			log.log(LogService.LOG_ERROR, "Error occurred while sending feeds to new members of swarm " + swarmId, e);
+		}
+	}
+
+	/**
+	 * Refresh the member swarms from the server if the swarm is not one of them.  The server is queried at most once 
+	 * per PresenceCoalescer window.
+	 * 
+	 * @param swarmId id of swarm
+	 */
+	@Override
+	public void addMemberSwarm(String swarmId) {
+		if (!memberOfSwarm(swarmId)) {
+			long now = System.currentTimeMillis();
+			long last = lastMemberRefresh.get();
+			
+			if (now - last < memberRefreshInterval || !lastMemberRefresh.compareAndSet(last, now))
+				return;
+			
 			try {
-				memberSwarms = wsClient.getSwarmResourceClient().getSwarmsByMember(config.getResource());
+				memberSwarms.replace(wsClient.getSwarmResourceClient().getSwarmsByMember(config.getResource()));
 			} catch (IOException e) {
 				log.log(LogService.LOG_ERROR, "Error occurred while updating member swarms.", e);
 			}
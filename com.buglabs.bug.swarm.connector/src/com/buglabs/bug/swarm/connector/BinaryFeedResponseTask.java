@@ -1,7 +1,6 @@
 package com.buglabs.bug.swarm.connector;
 
 import java.io.IOException;
-import java.util.TimerTask;
 
 import org.osgi.service.log.LogService;
 
@@ -10,18 +9,25 @@ import com.buglabs.bug.swarm.connector.model.BinaryFeed;
 import com.buglabs.bug.swarm.connector.model.Jid;
 
 /**
- * A TimerTask that handles responding to a feed request for binary data.
+ * A task that handles responding to a feed request for binary data.  The payload is read once
+ * per execution and uploaded for each recipient.
  * 
  * @author kgilmer
  *
  */
-public class BinaryFeedResponseTask extends TimerTask {
+public class BinaryFeedResponseTask extends AbstractFeedResponseTask<byte[]> {
 	
 	private final ISwarmClient wsClient;
-	private final Jid jid;
-	private final String swarmId;
-	private BinaryFeed feed;
-	private final LogService log;
+	
+	/**
+	 * @param wsClient instance of ws client
+	 * @param feed binary feed that has been requested
+	 * @param log instance of log service
+	 */
+	public BinaryFeedResponseTask(ISwarmClient wsClient, BinaryFeed feed, LogService log) {
+		super(feed, log);
+		this.wsClient = wsClient;
+	}
 	
 	/**
 	 * @param wsClient instance of ws client
@@ -31,21 +37,27 @@ public class BinaryFeedResponseTask extends TimerTask {
 	 * @param log instance of log service
 	 */
 	public BinaryFeedResponseTask(ISwarmClient wsClient, Jid jid, String swarmId, BinaryFeed feed, LogService log) {
-		this.wsClient = wsClient;
-		this.jid = jid;
-		this.swarmId = swarmId;
-		this.feed = feed;
-		this.log = log;		
+		this(wsClient, feed, log);
+		addRecipient(new FeedRecipient(jid, swarmId));
 	}	
 	
 	@Override
-	public void run() {
+	protected byte[] sample() throws IOException {
+		return ((BinaryFeed) feed).getPayload();
+	}
+
+	@Override
+	protected void send(FeedRecipient recipient, byte[] payload) throws Exception {
+		long start = System.currentTimeMillis();
+		
 		try {
 			wsClient.getSwarmBinaryUploadClient()
-				.upload(jid.getUsername(), jid.getResource(), feed.getName(), feed.getPayload());
-		} catch (IOException e) {
-			log.log(LogService.LOG_ERROR, "Error occurred while sending binary feed to " + jid, e);
+				.upload(recipient.getJid().getUsername(), recipient.getJid().getResource(), feed.getName(), payload);
+		} catch (Exception e) {
+			dropped(recipient);
+			throw e;
 		}
+		
+		delivered(recipient, System.currentTimeMillis() - start);
 	}
-
 }
@@ -0,0 +1,81 @@
+package com.buglabs.bug.swarm.connector;
+
+import com.buglabs.bug.swarm.connector.model.FeedRequest;
+import com.buglabs.bug.swarm.connector.model.Jid;
+
+/**
+ * A swarm peer that receives responses of a feed, identified by the peer's JID and the swarm
+ * the request was made in.  The encoding the peer requested responses in is not part of its identity.
+ *
+ * @author kgilmer
+ *
+ */
+public final class FeedRecipient {
+	private final Jid jid;
+	private final String swarmId;
+	private final String encoding;
+
+	/**
+	 * @param jid jid of recipient
+	 * @param swarmId id of swarm
+	 */
+	public FeedRecipient(Jid jid, String swarmId) {
+		this(jid, swarmId, FeedRequest.ENCODING_JSON);
+	}
+
+	/**
+	 * @param jid jid of recipient
+	 * @param swarmId id of swarm
+	 * @param encoding encoding of responses requested by recipient, see FeedRequest.getEncoding()
+	 */
+	public FeedRecipient(Jid jid, String swarmId, String encoding) {
+		if (jid == null || swarmId == null || encoding == null)
+			throw new IllegalArgumentException("Input parameter is null.");
+
+		this.jid = jid;
+		this.swarmId = swarmId;
+		this.encoding = encoding;
+	}
+
+	/**
+	 * @return jid of recipient
+	 */
+	public Jid getJid() {
+		return jid;
+	}
+
+	/**
+	 * @return id of swarm
+	 */
+	public String getSwarmId() {
+		return swarmId;
+	}
+
+	/**
+	 * @return encoding of responses requested by recipient
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof FeedRecipient) {
+			FeedRecipient r = (FeedRecipient) obj;
+
+			return r.jid.equals(jid) && r.swarmId.equals(swarmId);
+		}
+
+		return false;
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * jid.hashCode() + swarmId.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return jid + " in " + swarmId;
+	}
+}
@@ -1,64 +1,106 @@
 package com.buglabs.bug.swarm.connector;
 
 import java.io.IOException;
-import java.util.TimerTask;
 
 import org.codehaus.jackson.map.ObjectMapper;
-import org.jivesoftware.smack.XMPPException;
 import org.osgi.service.log.LogService;
 
 import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.FeedEncoder;
+import com.buglabs.bug.swarm.connector.model.FeedRequest;
 import com.buglabs.bug.swarm.connector.model.Jid;
 import com.buglabs.bug.swarm.connector.model.ServiceFeedAdapter;
-import com.buglabs.bug.swarm.connector.xmpp.SwarmXMPPClient;
+import com.buglabs.bug.swarm.connector.transport.SwarmTransport;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.DeliveryListener;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.OutboundMessage;
 
 /**
- * A TimerTask that handles responding to a Feed request.
+ * A task that handles responding to a Feed request.  The feed documents are generated once per 
+ * execution, from one reading of the feed, and sent to each recipient in the encoding it requested.
  * 
  * @author kgilmer
  *
  */
-public class FeedResponseTask extends TimerTask {
+public class FeedResponseTask extends AbstractFeedResponseTask<FeedEncoder.Documents> {
 	
-	private final SwarmXMPPClient xmppClient;
-	private final Jid jid;
-	private final String swarmId;
-	private final Feed feed;
-	private final LogService log;
+	private final SwarmTransport transport;
+	private final FeedEncoder encoder = new FeedEncoder();
 	private static ObjectMapper mapper = new ObjectMapper();
 	
 	/**
-	 * @param xmppClient instance of XMPP client that will be used to send the response.
+	 * @param transport transport that will be used to send the response.
+	 * @param feed instance of requested feed
+	 * @param log instance of LogService
+	 */
+	public FeedResponseTask(SwarmTransport transport, Feed feed, LogService log) {
+		super(feed, log);
+		this.transport = transport;
+	}
+	
+	/**
+	 * @param transport transport that will be used to send the response.
 	 * @param jid jid of recipient
 	 * @param swarmId id of associated swarm
 	 * @param feed instance of requested feed
 	 * @param log instance of LogService
 	 */
-	public FeedResponseTask(SwarmXMPPClient xmppClient, Jid jid, String swarmId, Feed feed, LogService log) {
-		this.xmppClient = xmppClient;
-		this.jid = jid;
-		this.swarmId = swarmId;
-		this.feed = feed;
-		this.log = log;		
+	public FeedResponseTask(SwarmTransport transport, Jid jid, String swarmId, Feed feed, LogService log) {
+		this(transport, feed, log);
+		addRecipient(new FeedRecipient(jid, swarmId));
 	}	
 	
 	@Override
-	public void run() {
-		String document = null;
+	protected FeedEncoder.Documents sample() throws IOException {
+		// Web service feeds are sent as returned by the service.
+		if (feed instanceof ServiceFeedAdapter)
+			return FeedEncoder.Documents.of(((ServiceFeedAdapter) feed).callGet(null));
 		
-		try {
-			if (feed instanceof ServiceFeedAdapter) {
-				document = ((ServiceFeedAdapter) feed).callGet(null);
-			} else {				
-				document = mapper.writeValueAsString(feed);
+		return encoder.encode(feed, isSmileRequested());
+	}
+
+	/**
+	 * @return true if a recipient of the task requested the Smile encoding.
+	 */
+	private boolean isSmileRequested() {
+		for (FeedRecipient recipient : getRecipients())
+			if (FeedRequest.ENCODING_SMILE.equals(recipient.getEncoding()))
+				return true;
+		
+		return false;
+	}
+
+	@Override
+	protected void send(final FeedRecipient recipient, FeedEncoder.Documents documents) throws Exception {
+		String document = documents.get(recipient.getEncoding());
+		
+		if (getStream() == null) {
+			transport.sendFeedToUser(recipient.getJid(), recipient.getSwarmId(), document, null, null);
+			return;
+		}
+		
+		transport.sendFeedToUser(recipient.getJid(), recipient.getSwarmId(), document, getStream().getName(), new DeliveryListener() {
+			
+			@Override
+			public void delivered(OutboundMessage message, long latency) {
+				FeedResponseTask.this.delivered(recipient, latency);
 			}
+			
+			@Override
+			public void dropped(OutboundMessage message) {
+				FeedResponseTask.this.dropped(recipient);
+			}
+		});
+	}
+	
+	@Override
+	protected void rateChanged(FeedRecipient recipient, AdaptiveRate rate) {
+		super.rateChanged(recipient, rate);
 		
- 			xmppClient.sendFeedToUser(jid, swarmId, document);
-		} catch (XMPPException e) {
-			log.log(LogService.LOG_ERROR, "Error occurred while sending feeds to " + jid, e);
-		} catch (IOException e) {
-			log.log(LogService.LOG_ERROR, "Error occurred while getting feed data.", e);
+		try {
+			transport.sendPrivateMessage(recipient.getSwarmId(), recipient.getJid().toString(), 
+					mapper.writeValueAsString(getStreamInfo(rate)));
+		} catch (Exception e) {
+			log.log(LogService.LOG_ERROR, "Error occurred while sending stream metadata to " + recipient, e);
 		}
 	}
-
 }
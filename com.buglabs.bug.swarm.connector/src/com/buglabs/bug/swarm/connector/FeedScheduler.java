@@ -0,0 +1,409 @@
+package com.buglabs.bug.swarm.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.log.LogService;
+
+/**
+ * Runs streaming feeds, one-shot feed responses and other deferred connector work.
+ *
+ * A single tick thread only dispatches work, the actual tasks are executed by a bounded
+ * pool of worker threads and never by the tick thread.  A one-shot task that finds all workers busy is
+ * retried shortly after.  A stream whose previous execution has not completed when the next
+ * tick arrives skips that tick rather than queuing another execution.  Exceptions thrown by a task
+ * are logged and do not affect any other task.
+ *
+ * @author kgilmer
+ *
+ */
+public class FeedScheduler {
+
+	/**
+	 * Bundle context property to define the number of worker threads.
+	 */
+	public static final String WORKER_COUNT_PROPERTY = "com.buglabs.bugswarm.scheduler.workers";
+
+	/**
+	 * Bundle context property to define the maximum number of tasks waiting for a worker.
+	 */
+	public static final String QUEUE_SIZE_PROPERTY = "com.buglabs.bugswarm.scheduler.queue";
+
+	/**
+	 * Default number of worker threads.
+	 */
+	public static final int DEFAULT_WORKER_COUNT = 2;
+
+	/**
+	 * Default number of tasks that can wait for a worker.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	/**
+	 * Time to wait for running tasks on shutdown.
+	 */
+	private static final long SHUTDOWN_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * Delay before a one-shot task that found all workers busy is offered to the workers again.
+	 */
+	private static final long RETRY_DELAY_MILLIS = 50;
+
+	private final ScheduledExecutorService ticker;
+	private final ThreadPoolExecutor workers;
+	private final LogService log;
+
+	/**
+	 * Set of active periodic streams.
+	 */
+	private final Set<ScheduledStream> streams;
+
+	/**
+	 * @param workerCount number of threads that execute tasks
+	 * @param queueSize maximum number of tasks waiting for a worker
+	 * @param log instance of LogService
+	 */
+	public FeedScheduler(int workerCount, int queueSize, LogService log) {
+		if (workerCount < 1 || queueSize < 1 || log == null)
+			throw new IllegalArgumentException("Invalid scheduler parameter.");
+
+		this.log = log;
+		this.streams = Collections.newSetFromMap(new ConcurrentHashMap<ScheduledStream, Boolean>());
+		this.ticker = new ScheduledThreadPoolExecutor(1, new NamedThreadFactory("bugswarm-feed-tick"));
+		this.workers = new ThreadPoolExecutor(
+				workerCount, workerCount,
+				0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize),
+				new NamedThreadFactory("bugswarm-feed-worker"));
+	}
+
+	/**
+	 * Schedule a task to be executed periodically.
+	 *
+	 * @param name name of stream, used in logs and statistics
+	 * @param task task to execute
+	 * @param periodMillis period in milliseconds
+	 * @return handle to the stream that can be used to cancel it or read its statistics.
+	 */
+	public ScheduledStream schedule(String name, Runnable task, long periodMillis) {
+		if (periodMillis <= 0)
+			throw new IllegalArgumentException("Period must be positive.");
+
+		ScheduledStream stream = new ScheduledStream(name, task, periodMillis);
+		streams.add(stream);
+		stream.setFuture(ticker.scheduleAtFixedRate(stream, 0, periodMillis, TimeUnit.MILLISECONDS));
+
+		return stream;
+	}
+
+	/**
+	 * Schedule a task to be executed once after a delay.
+	 *
+	 * @param name name of task, used in logs
+	 * @param task task to execute
+	 * @param delayMillis delay in milliseconds
+	 * @return handle to the task that can be used to cancel it.
+	 */
+	public ScheduledStream scheduleOnce(String name, Runnable task, long delayMillis) {
+		ScheduledStream stream = new ScheduledStream(name, task, 0);
+		stream.setFuture(ticker.schedule(stream, delayMillis, TimeUnit.MILLISECONDS));
+
+		return stream;
+	}
+
+	/**
+	 * Create a task that is executed each time it is triggered.  A task never runs concurrently with itself: a trigger
+	 * that arrives while the task is running is retried once it has completed.
+	 *
+	 * @param name name of task, used in logs
+	 * @param task task to execute
+	 * @return handle to the task, to pass to trigger() and to cancel it.
+	 */
+	public ScheduledStream prepare(String name, Runnable task) {
+		return new ScheduledStream(name, task, 0);
+	}
+
+	/**
+	 * Execute a task created by prepare() on a worker after a delay.
+	 *
+	 * @param stream task to execute
+	 * @param delayMillis delay in milliseconds
+	 * @return future of the trigger, that can be cancelled without cancelling the task.
+	 */
+	public ScheduledFuture<?> trigger(ScheduledStream stream, long delayMillis) {
+		return ticker.schedule(stream, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Execute a task once as soon as a worker is available.
+	 *
+	 * @param name name of task, used in logs
+	 * @param task task to execute
+	 * @return handle to the task
+	 */
+	public ScheduledStream execute(String name, Runnable task) {
+		ScheduledStream stream = new ScheduledStream(name, task, 0);
+		stream.run();
+
+		return stream;
+	}
+
+	/**
+	 * @return All active periodic streams, which also provide per-stream execution and lag statistics.
+	 */
+	public List<ScheduledStream> getStreams() {
+		return new ArrayList<ScheduledStream>(streams);
+	}
+
+	/**
+	 * @return number of tasks waiting for a worker.
+	 */
+	public int getQueueDepth() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * Stop all streams and release the threads.  Once called the scheduler cannot be used again.
+	 */
+	public void shutdown() {
+		for (ScheduledStream stream : getStreams())
+			stream.cancel();
+
+		ticker.shutdownNow();
+		workers.shutdown();
+
+		try {
+			if (!workers.awaitTermination(SHUTDOWN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+				workers.shutdownNow();
+		} catch (InterruptedException e) {
+			workers.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * A task managed by the scheduler.  Each tick from the tick thread hands the task to a worker unless
+	 * the previous execution is still running, in which case the tick is skipped.
+	 */
+	public final class ScheduledStream implements Runnable {
+		private final String name;
+		private final Runnable task;
+		private final long period;
+		private final AtomicBoolean running = new AtomicBoolean(false);
+		private volatile boolean cancelled = false;
+		private volatile ScheduledFuture<?> future;
+
+		private final AtomicLong executions = new AtomicLong();
+		private final AtomicLong skippedTicks = new AtomicLong();
+		private final AtomicLong failures = new AtomicLong();
+		private volatile long lastLag;
+		private volatile long maxLag;
+
+		private ScheduledStream(String name, Runnable task, long period) {
+			this.name = name;
+			this.task = task;
+			this.period = period;
+		}
+
+		private void setFuture(ScheduledFuture<?> future) {
+			this.future = future;
+		}
+
+		/**
+		 * Called by the tick thread.
+		 */
+		@Override
+		public void run() {
+			if (cancelled)
+				return;
+
+			if (!running.compareAndSet(false, true)) {
+				//Previous execution has not completed, do not let executions pile up.  A trigger of a one-shot task 
+				//is not lost, it is retried once the execution may have completed.
+				if (period == 0)
+					retry();
+				else
+					skippedTicks.incrementAndGet();
+				
+				return;
+			}
+
+			final long tickTime = System.currentTimeMillis();
+
+			try {
+				workers.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						execute(tickTime);
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				if (workers.isShutdown()) {
+					running.set(false);
+					return;
+				}
+
+				if (period == 0) {
+					//One-shot tasks are not dropped, they are retried after a delay.  Running them on the calling thread 
+					//would stall the tick thread, and every stream with it.
+					running.set(false);
+					retry();
+					return;
+				}
+
+				running.set(false);
+				skippedTicks.incrementAndGet();
+				log.log(LogService.LOG_WARNING, "All feed workers are busy, skipped execution of " + name);
+			}
+		}
+
+		/**
+		 * Re-arm a one-shot task on the tick thread.
+		 */
+		private void retry() {
+			if (cancelled)
+				return;
+
+			try {
+				future = ticker.schedule(this, RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				// The scheduler has been shut down.
+			}
+		}
+
+		/**
+		 * Called by a worker thread.
+		 * @param tickTime time the tick occurred
+		 */
+		private void execute(long tickTime) {
+			try {
+				if (cancelled)
+					return;
+
+				long lag = System.currentTimeMillis() - tickTime;
+				lastLag = lag;
+				if (lag > maxLag)
+					maxLag = lag;
+
+				executions.incrementAndGet();
+				task.run();
+			} catch (Throwable t) {
+				failures.incrementAndGet();
+				log.log(LogService.LOG_ERROR, "Error occurred while executing " + name, t);
+			} finally {
+				running.set(false);
+			}
+		}
+
+		/**
+		 * Cancel the stream.  An execution that is currently running is allowed to complete.
+		 */
+		public void cancel() {
+			cancelled = true;
+			streams.remove(this);
+
+			if (future != null)
+				future.cancel(false);
+		}
+
+		/**
+		 * @return true if the stream has been cancelled.
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		/**
+		 * @return name of stream
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return period in milliseconds or 0 for a one-shot task.
+		 */
+		public long getPeriod() {
+			return period;
+		}
+
+		/**
+		 * @return number of times the task has been executed.
+		 */
+		public long getExecutions() {
+			return executions.get();
+		}
+
+		/**
+		 * @return number of ticks skipped because the previous execution had not completed or no worker was available.
+		 */
+		public long getSkippedTicks() {
+			return skippedTicks.get();
+		}
+
+		/**
+		 * @return number of executions that terminated with an exception.
+		 */
+		public long getFailures() {
+			return failures.get();
+		}
+
+		/**
+		 * @return time in milliseconds between the last tick and the start of its execution.
+		 */
+		public long getLastLag() {
+			return lastLag;
+		}
+
+		/**
+		 * @return largest time in milliseconds between a tick and the start of its execution.
+		 */
+		public long getMaxLag() {
+			return maxLag;
+		}
+
+		@Override
+		public String toString() {
+			return name + " period: " + period + " executions: " + executions + " skipped: " + skippedTicks
+				+ " failures: " + failures + " lag: " + lastLag + " max lag: " + maxLag;
+		}
+	}
+
+	/**
+	 * Creates daemon threads with a common name prefix.
+	 */
+	static class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		/**
+		 * @param prefix thread name prefix
+		 */
+		public NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + "-" + count.incrementAndGet());
+			t.setDaemon(true);
+
+			return t;
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.buglabs.bug.swarm.connector;
+
+import java.util.concurrent.ScheduledFuture;
+
+import com.buglabs.bug.swarm.connector.FeedScheduler.ScheduledStream;
+
+/**
+ * A push stream that sends a feed to the recipients of a task when the feed changes, rather than at a fixed frequency.
+ *
+ * Changes are sent at most once per minimum interval; changes that occur within the interval are coalesced and sent
+ * when it elapses.  If the feed has not been sent for the maximum interval, it is sent anyway as a heartbeat.
+ *
+ * Changes and heartbeats are sent by one scheduler task, so that the feed task never runs concurrently with itself,
+ * and always on a scheduler worker rather than on the thread that notified the change.
+ *
+ * @author kgilmer
+ *
+ */
+public class OnChangeFeedStream {
+
+	private final String name;
+	private final AbstractFeedResponseTask<?> task;
+	private final FeedScheduler scheduler;
+	private final long minInterval;
+	private final long maxInterval;
+
+	private final Runnable sender = new Runnable() {
+
+		@Override
+		public void run() {
+			send();
+		}
+	};
+
+	private final ScheduledStream stream;
+	private long lastSent = 0;
+	private boolean sendPending = false;
+	private ScheduledFuture<?> pending;
+	private ScheduledFuture<?> heartbeat;
+	private boolean cancelled = false;
+
+	/**
+	 * @param name name of stream
+	 * @param task task that sends the feed to its recipients
+	 * @param scheduler scheduler that executes the task
+	 * @param minInterval minimum time in milliseconds between two sends, 0 to send every change
+	 * @param maxInterval maximum time in milliseconds without a send, 0 for no heartbeat
+	 */
+	public OnChangeFeedStream(String name, AbstractFeedResponseTask<?> task, FeedScheduler scheduler, long minInterval, long maxInterval) {
+		if (task == null || scheduler == null || minInterval < 0 || maxInterval < 0)
+			throw new IllegalArgumentException("Invalid stream parameter.");
+
+		this.name = name;
+		this.task = task;
+		this.scheduler = scheduler;
+		this.minInterval = minInterval;
+		this.maxInterval = maxInterval;
+		this.stream = scheduler.prepare(name, sender);
+	}
+
+	/**
+	 * Send the current state of the feed so that new recipients do not wait for the first change.
+	 */
+	public void start() {
+		changed();
+	}
+
+	/**
+	 * Notify the stream that the feed has changed.
+	 */
+	public synchronized void changed() {
+		if (cancelled || sendPending)
+			return;
+
+		sendPending = true;
+		pending = scheduler.trigger(stream, lastSent + minInterval - System.currentTimeMillis());
+	}
+
+	/**
+	 * Stop the stream.  A send that is currently running is allowed to complete.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		stream.cancel();
+
+		if (pending != null)
+			pending.cancel(false);
+
+		if (heartbeat != null)
+			heartbeat.cancel(false);
+	}
+
+	/**
+	 * @return the task that sends the feed.
+	 */
+	public AbstractFeedResponseTask<?> getTask() {
+		return task;
+	}
+
+	/**
+	 * @return name of stream
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Send the feed and restart the heartbeat interval.
+	 */
+	private void send() {
+		synchronized (this) {
+			if (cancelled)
+				return;
+
+			// A change waiting for the minimum interval is covered by this send, whether or not it is the one sending it.
+			if (pending != null)
+				pending.cancel(false);
+
+			sendPending = false;
+			pending = null;
+			lastSent = System.currentTimeMillis();
+
+			if (heartbeat != null)
+				heartbeat.cancel(false);
+
+			if (maxInterval > 0)
+				heartbeat = scheduler.trigger(stream, maxInterval);
+		}
+
+		task.run();
+	}
+}
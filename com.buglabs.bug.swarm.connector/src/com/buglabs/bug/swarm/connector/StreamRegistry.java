@@ -0,0 +1,278 @@
+package com.buglabs.bug.swarm.connector;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.buglabs.bug.swarm.connector.model.Jid;
+
+/**
+ * Registry of active streaming feeds.  Each stream is identified by the swarm, the peer and the feed, and
+ * the registry maintains indexes by peer, by swarm and by feed so that all streams of one of them can be
+ * found and removed in time proportional to the number of matching streams.
+ *
+ * All methods are thread safe.
+ *
+ * @param <V> type of value associated with a stream
+ *
+ * @author kgilmer
+ *
+ */
+public class StreamRegistry<V> {
+
+	/**
+	 * Identity of a stream.
+	 */
+	public static final class Key {
+		private final String swarmId;
+		private final Jid peer;
+		private final String feedName;
+		private final int hash;
+
+		/**
+		 * @param swarmId id of swarm the stream was requested in
+		 * @param peer jid of peer receiving the stream
+		 * @param feedName name of streamed feed
+		 */
+		public Key(String swarmId, Jid peer, String feedName) {
+			if (swarmId == null || peer == null || feedName == null)
+				throw new IllegalArgumentException("Input parameter is null.");
+
+			this.swarmId = swarmId;
+			this.peer = peer;
+			this.feedName = feedName;
+			this.hash = 31 * (31 * swarmId.hashCode() + peer.hashCode()) + feedName.hashCode();
+		}
+
+		/**
+		 * @return id of swarm
+		 */
+		public String getSwarmId() {
+			return swarmId;
+		}
+
+		/**
+		 * @return jid of peer
+		 */
+		public Jid getPeer() {
+			return peer;
+		}
+
+		/**
+		 * @return name of feed
+		 */
+		public String getFeedName() {
+			return feedName;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+
+			if (!(obj instanceof Key))
+				return false;
+
+			Key k = (Key) obj;
+
+			return hash == k.hash && swarmId.equals(k.swarmId) && peer.equals(k.peer) && feedName.equals(k.feedName);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public String toString() {
+			return feedName + " to " + peer + " in " + swarmId;
+		}
+	}
+
+	private final Map<Key, V> streams = new HashMap<Key, V>();
+	private final Map<Jid, Set<Key>> byPeer = new HashMap<Jid, Set<Key>>();
+	private final Map<String, Set<Key>> bySwarm = new HashMap<String, Set<Key>>();
+	private final Map<String, Set<Key>> byFeed = new HashMap<String, Set<Key>>();
+
+	/**
+	 * Add a stream if it does not already exist.
+	 *
+	 * @param key identity of stream
+	 * @param value value associated with stream
+	 * @return true if the stream was added, false if a stream with the same key already exists.
+	 */
+	public synchronized boolean add(Key key, V value) {
+		if (streams.containsKey(key))
+			return false;
+
+		streams.put(key, value);
+		index(byPeer, key.peer, key);
+		index(bySwarm, key.swarmId, key);
+		index(byFeed, key.feedName, key);
+
+		return true;
+	}
+
+	/**
+	 * @param key identity of stream
+	 * @return value associated with stream or null if no such stream exists.
+	 */
+	public synchronized V get(Key key) {
+		return streams.get(key);
+	}
+
+	/**
+	 * @param key identity of stream
+	 * @return true if stream exists.
+	 */
+	public synchronized boolean contains(Key key) {
+		return streams.containsKey(key);
+	}
+
+	/**
+	 * @param key identity of stream
+	 * @return value of the removed stream or null if no such stream exists.
+	 */
+	public synchronized V remove(Key key) {
+		V value = streams.remove(key);
+
+		if (value != null) {
+			unindex(byPeer, key.peer, key);
+			unindex(bySwarm, key.swarmId, key);
+			unindex(byFeed, key.feedName, key);
+		}
+
+		return value;
+	}
+
+	/**
+	 * @param peer jid of peer
+	 * @return all streams to the peer that were removed.
+	 */
+	public synchronized Map<Key, V> removeByPeer(Jid peer) {
+		return removeAll(byPeer.get(peer));
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return all streams in the swarm that were removed.
+	 */
+	public synchronized Map<Key, V> removeBySwarm(String swarmId) {
+		return removeAll(bySwarm.get(swarmId));
+	}
+
+	/**
+	 * @param feedName name of feed
+	 * @return all streams of the feed that were removed.
+	 */
+	public synchronized Map<Key, V> removeByFeed(String feedName) {
+		return removeAll(byFeed.get(feedName));
+	}
+
+	/**
+	 * @return a copy of all active streams.
+	 */
+	public synchronized Map<Key, V> snapshot() {
+		return new LinkedHashMap<Key, V>(streams);
+	}
+
+	/**
+	 * @return list of keys of all active streams.
+	 */
+	public synchronized List<Key> keys() {
+		return new ArrayList<Key>(streams.keySet());
+	}
+
+	/**
+	 * @return number of active streams.
+	 */
+	public synchronized int size() {
+		return streams.size();
+	}
+
+	/**
+	 * @return number of peers that are receiving at least one stream.
+	 */
+	public synchronized int getPeerCount() {
+		return byPeer.size();
+	}
+
+	/**
+	 * @return number of swarms with at least one stream.
+	 */
+	public synchronized int getSwarmCount() {
+		return bySwarm.size();
+	}
+
+	/**
+	 * @return map of feed name to the number of streams of that feed.
+	 */
+	public synchronized Map<String, Integer> getFeedCounts() {
+		Map<String, Integer> counts = new HashMap<String, Integer>();
+
+		for (Map.Entry<String, Set<Key>> e : byFeed.entrySet())
+			counts.put(e.getKey(), e.getValue().size());
+
+		return counts;
+	}
+
+	/**
+	 * Remove all streams.
+	 *
+	 * @return the removed streams.
+	 */
+	public synchronized Map<Key, V> clear() {
+		Map<Key, V> removed = snapshot();
+
+		streams.clear();
+		byPeer.clear();
+		bySwarm.clear();
+		byFeed.clear();
+
+		return removed;
+	}
+
+	/**
+	 * @param keys keys to remove, may be null.
+	 * @return the removed streams.
+	 */
+	private Map<Key, V> removeAll(Set<Key> keys) {
+		if (keys == null)
+			return Collections.emptyMap();
+
+		Map<Key, V> removed = new HashMap<Key, V>();
+
+		// Copy as remove() modifies the index being iterated.
+		for (Key key : new ArrayList<Key>(keys))
+			removed.put(key, remove(key));
+
+		return removed;
+	}
+
+	private static <K> void index(Map<K, Set<Key>> index, K indexKey, Key key) {
+		Set<Key> keys = index.get(indexKey);
+
+		if (keys == null) {
+			keys = new HashSet<Key>();
+			index.put(indexKey, keys);
+		}
+
+		keys.add(key);
+	}
+
+	private static <K> void unindex(Map<K, Set<Key>> index, K indexKey, Key key) {
+		Set<Key> keys = index.get(indexKey);
+
+		if (keys != null) {
+			keys.remove(key);
+
+			if (keys.isEmpty())
+				index.remove(indexKey);
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package com.buglabs.bug.swarm.connector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.buglabs.bug.swarm.client.model.SwarmModel;
+
+/**
+ * Swarms the device is a member of, indexed by swarm id.  The set is copied on write and published as an immutable
+ * snapshot: membership checks do not lock, and iterating over the swarms, as when broadcasting capabilities, sees a
+ * consistent set while swarms are joined or the set is replaced from the server.
+ *
+ * @author kgilmer
+ *
+ */
+public class SwarmMembership {
+
+	/**
+	 * Immutable state of the set.
+	 */
+	private static final class Snapshot {
+		private final Map<String, SwarmModel> index;
+		private final List<SwarmModel> swarms;
+
+		private Snapshot(List<SwarmModel> swarms) {
+			Map<String, SwarmModel> index = new HashMap<String, SwarmModel>(swarms.size() * 2);
+
+			for (SwarmModel swarm : swarms)
+				index.put(swarm.getId(), swarm);
+
+			this.index = index;
+			this.swarms = Collections.unmodifiableList(swarms);
+		}
+	}
+
+	private volatile Snapshot snapshot = new Snapshot(new ArrayList<SwarmModel>());
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return true if the device is a member of the swarm.
+	 */
+	public boolean contains(String swarmId) {
+		return snapshot.index.containsKey(swarmId);
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return the swarm or null if the device is not a member of it.
+	 */
+	public SwarmModel get(String swarmId) {
+		return snapshot.index.get(swarmId);
+	}
+
+	/**
+	 * @param swarm swarm to add
+	 * @return true if the swarm was added, false if the device was already a member of it.
+	 */
+	public synchronized boolean add(SwarmModel swarm) {
+		Snapshot current = snapshot;
+
+		if (current.index.containsKey(swarm.getId()))
+			return false;
+
+		List<SwarmModel> swarms = new ArrayList<SwarmModel>(current.swarms.size() + 1);
+		swarms.addAll(current.swarms);
+		swarms.add(swarm);
+		snapshot = new Snapshot(swarms);
+
+		return true;
+	}
+
+	/**
+	 * @param swarmId id of swarm to remove
+	 * @return true if the swarm was removed.
+	 */
+	public synchronized boolean remove(String swarmId) {
+		Snapshot current = snapshot;
+
+		if (!current.index.containsKey(swarmId))
+			return false;
+
+		List<SwarmModel> swarms = new ArrayList<SwarmModel>(current.swarms.size());
+
+		for (SwarmModel swarm : current.swarms)
+			if (!swarm.getId().equals(swarmId))
+				swarms.add(swarm);
+
+		snapshot = new Snapshot(swarms);
+
+		return true;
+	}
+
+	/**
+	 * Replace all swarms, such as with the member swarms returned by the server.  Duplicate ids are ignored.
+	 *
+	 * @param swarms swarms the device is a member of
+	 */
+	public synchronized void replace(Collection<SwarmModel> swarms) {
+		Map<String, SwarmModel> unique = new HashMap<String, SwarmModel>(swarms.size() * 2);
+		List<SwarmModel> list = new ArrayList<SwarmModel>(swarms.size());
+
+		for (SwarmModel swarm : swarms)
+			if (unique.put(swarm.getId(), swarm) == null)
+				list.add(swarm);
+
+		snapshot = new Snapshot(list);
+	}
+
+	/**
+	 * Remove all swarms.
+	 */
+	public synchronized void clear() {
+		snapshot = new Snapshot(new ArrayList<SwarmModel>());
+	}
+
+	/**
+	 * @return unmodifiable snapshot of the swarms, in the order they were added.  Later changes are not reflected.
+	 */
+	public List<SwarmModel> getSwarms() {
+		return snapshot.swarms;
+	}
+
+	/**
+	 * @return number of swarms.
+	 */
+	public int size() {
+		return snapshot.swarms.size();
+	}
+}
@@ -0,0 +1,135 @@
+package com.buglabs.bug.swarm.connector.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versioned state of the feeds and modules of the device.  Each change of the state increments the version
+ * so that swarm peers can apply the changes as deltas rather than receiving the complete state every time.
+ *
+ * Full document, sent on join and in response to a feed list request:
+ * {
+    "capabilities": {
+        "version": 4,
+        "modules": { "slot1": "gps", "slot3": "lcd" },
+        "feeds": ["picture", "location", "acceleration"]
+    }
+}
+ *
+ * Delta, broadcast to member swarms when the state changes:
+ * {
+    "capabilities": {
+        "version": 5,
+        "base": 4,
+        "added": { "modules": { "slot2": "camera" }, "feeds": ["picture"] },
+        "removed": { "modules": ["slot1"], "feeds": ["location"] }
+    }
+}
+ *
+ * A peer that receives a delta whose base is not the version it last applied has missed a change, and should
+ * resynchronize by sending a feed list request (<code>{"type": "get", "feed": "feeds"}</code>) to the device.
+ *
+ * @author kgilmer
+ *
+ */
+public class DeviceCapabilities {
+
+	private long version = 0;
+	private Set<String> feeds = new LinkedHashSet<String>();
+	private Map<String, String> modules = new HashMap<String, String>();
+
+	/**
+	 * Replace the current state.  If the state differs from the current state the version is incremented.
+	 *
+	 * @param feedNames names of all available feeds
+	 * @param moduleMap map of slot to module name of all attached modules
+	 * @return delta document from the previous version or null if the state did not change.
+	 */
+	public synchronized Map<String, Object> update(Collection<String> feedNames, Map<String, String> moduleMap) {
+		Set<String> newFeeds = new LinkedHashSet<String>(feedNames);
+		Map<String, String> newModules = new HashMap<String, String>(moduleMap);
+
+		List<String> addedFeeds = new ArrayList<String>();
+		List<String> removedFeeds = new ArrayList<String>();
+		Map<String, String> addedModules = new HashMap<String, String>();
+		List<String> removedModules = new ArrayList<String>();
+
+		for (String feed : newFeeds)
+			if (!feeds.contains(feed))
+				addedFeeds.add(feed);
+
+		for (String feed : feeds)
+			if (!newFeeds.contains(feed))
+				removedFeeds.add(feed);
+
+		// A module that changed in a slot is sent as added, which replaces the previous module.
+		for (Map.Entry<String, String> e : newModules.entrySet())
+			if (!e.getValue().equals(modules.get(e.getKey())))
+				addedModules.put(e.getKey(), e.getValue());
+
+		for (String slot : modules.keySet())
+			if (!newModules.containsKey(slot))
+				removedModules.add(slot);
+
+		if (addedFeeds.isEmpty() && removedFeeds.isEmpty() && addedModules.isEmpty() && removedModules.isEmpty())
+			return null;
+
+		long base = version;
+		version++;
+		feeds = newFeeds;
+		modules = newModules;
+
+		Map<String, Object> added = new HashMap<String, Object>();
+		added.put("feeds", addedFeeds);
+		added.put("modules", addedModules);
+
+		Map<String, Object> removed = new HashMap<String, Object>();
+		removed.put("feeds", removedFeeds);
+		removed.put("modules", removedModules);
+
+		Map<String, Object> c = new LinkedHashMap<String, Object>();
+		c.put("version", version);
+		c.put("base", base);
+		c.put("added", added);
+		c.put("removed", removed);
+
+		return wrap(c);
+	}
+
+	/**
+	 * @return full document of the current version.
+	 */
+	public synchronized Map<String, Object> getDocument() {
+		Map<String, Object> c = new LinkedHashMap<String, Object>();
+
+		c.put("version", version);
+		c.put("feeds", new ArrayList<String>(feeds));
+		c.put("modules", new HashMap<String, String>(modules));
+
+		return wrap(c);
+	}
+
+	/**
+	 * @return current version, 0 if no state has been set.
+	 */
+	public synchronized long getVersion() {
+		return version;
+	}
+
+	/**
+	 * @param c capabilities content
+	 * @return content wrapped in a capabilities root element.
+	 */
+	private static Map<String, Object> wrap(Map<String, Object> c) {
+		Map<String, Object> root = new HashMap<String, Object>();
+		root.put("capabilities", c);
+
+		return root;
+	}
+}
@@ -47,6 +47,11 @@ public class Feed {
 	private Map<String, Object> feed;
 
 	private ServiceRegistration serviceRegistration;
+	
+	/**
+	 * Reference of the service providing the feed, or null if the feed is not a service.
+	 */
+	private final ServiceReference reference;
 
 	/**
 	 * @param feedName
@@ -55,6 +60,18 @@ public class Feed {
 	 *            feed contents
 	 */
 	public Feed(final String feedName, final Map<String, Object> feed) {
+		this(feedName, feed, null);
+	}
+	
+	/**
+	 * @param feedName
+	 *            Name of feed
+	 * @param feed
+	 *            feed contents
+	 * @param reference
+	 *            reference of the Map service providing the feed, may be null
+	 */
+	public Feed(final String feedName, final Map<String, Object> feed, final ServiceReference reference) {
 		//The server specifies the feed name as "feeds" if it wants
 		//a list of all available feeds.
 		if (feedName.equalsIgnoreCase("feeds")) 
@@ -62,6 +79,7 @@ public class Feed {
 		
 		this.feedName = feedName;
 		this.feed = feed;
+		this.reference = reference;
 	}
 
 	/**
@@ -78,6 +96,17 @@ public class Feed {
 		return feed;
 	}
 
+	/**
+	 * @return value of the FEED_SERVICE_TIMESTAMP_PROPERTY of the feed service, or null if the feed is not a service or
+	 *         the service does not set it.  The contents of a feed are unchanged while its timestamp is unchanged.
+	 */
+	public Object getTimestamp() {
+		if (reference == null)
+			return null;
+		
+		return reference.getProperty(FEED_SERVICE_TIMESTAMP_PROPERTY);
+	}
+
 	@Override
 	public boolean equals(final Object obj) {
 		// Feed names are unique
@@ -131,7 +160,7 @@ public class Feed {
 				if (sr.getProperty(Feed.FEED_SERVICE_BINARY_PROPERTY) == null
 						|| !Boolean.parseBoolean(sr.getProperty(Feed.FEED_SERVICE_BINARY_PROPERTY).toString())) {
 					return new Feed((String) sr.getProperty(Feed.FEED_SERVICE_NAME_PROPERTY), (Map<String, Object>) Activator.getContext()
-							.getService(sr));
+							.getService(sr), sr);
 				} else {
 					return new BinaryFeed((String) sr.getProperty(Feed.FEED_SERVICE_NAME_PROPERTY), (Map<String, Object>) Activator.getContext()
 							.getService(sr));
@@ -0,0 +1,260 @@
+package com.buglabs.bug.swarm.connector.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+
+/**
+ * Encodes feeds as the JSON document sent to swarm peers: { "name": feed name, "feed": { feed contents } }.  The
+ * document is written by a generator into a buffer that is reused between encodings, without introspecting the Feed
+ * class.  The last document is kept, and is returned again without encoding while the FEED_SERVICE_TIMESTAMP_PROPERTY
+ * of the feed is unchanged.
+ *
+ * Peers that request the "smile" encoding receive the feed contents in the Smile binary format, base64 encoded in a
+ * JSON document: { "name": feed name, "encoding": "smile", "data": base64 }, when that document is smaller than the JSON
+ * document.  This is the case for large feeds with repeated keys and values; small feeds are sent as JSON to all peers.
+ * The Smile format is optional at runtime; isSmileAvailable() is false if the jackson smile package is not installed.
+ *
+ * An encoder is meant to be used for one feed; encoding another feed replaces the last document.
+ *
+ * @author kgilmer
+ *
+ */
+public class FeedEncoder {
+
+	/**
+	 * Shared by all encoders; feed contents are written with the mapper set as codec.
+	 */
+	private static final JsonFactory factory = new ObjectMapper().getJsonFactory();
+
+	/**
+	 * Holds the Smile factory so that the package is only loaded when Smile is used.
+	 */
+	private static final class Smile {
+		private static final JsonFactory factory = new ObjectMapper(new SmileFactory()).getJsonFactory();
+	}
+
+	private static final boolean smileAvailable;
+
+	static {
+		boolean available;
+		try {
+			Class.forName("org.codehaus.jackson.smile.SmileFactory", false, FeedEncoder.class.getClassLoader());
+			available = true;
+		} catch (ClassNotFoundException e) {
+			available = false;
+		} catch (LinkageError e) {
+			available = false;
+		}
+		smileAvailable = available;
+	}
+
+	/**
+	 * Documents encoded from one reading of a feed.
+	 */
+	public static final class Documents {
+		private final String json;
+		private final String smile;
+
+		private Documents(String json, String smile) {
+			this.json = json;
+			this.smile = smile;
+		}
+
+		/**
+		 * @param json a JSON document
+		 * @return documents holding only the JSON document.
+		 */
+		public static Documents of(String json) {
+			return new Documents(json, null);
+		}
+
+		/**
+		 * @return the feed as a JSON document.
+		 */
+		public String getJson() {
+			return json;
+		}
+
+		/**
+		 * @return the feed in the Smile encoding, or null if it was not requested, is not available or is not smaller
+		 *         than the JSON document.
+		 */
+		public String getSmile() {
+			return smile;
+		}
+
+		/**
+		 * @param encoding encoding requested by a peer
+		 * @return the document to send to the peer.
+		 */
+		public String get(String encoding) {
+			if (smile != null && FeedRequest.ENCODING_SMILE.equals(encoding))
+				return smile;
+
+			return json;
+		}
+	}
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+	private final ByteArrayOutputStream binaryBuffer = new ByteArrayOutputStream(256);
+	private String lastName;
+	private Object lastTimestamp;
+	private Documents lastDocuments;
+	private boolean lastSmileEncoded;
+
+	private final AtomicLong encodes = new AtomicLong();
+	private final AtomicLong reuses = new AtomicLong();
+
+	/**
+	 * @param feed feed to encode
+	 * @return the feed as a JSON document.
+	 * @throws IOException on failure to encode feed contents
+	 */
+	public String encode(Feed feed) throws IOException {
+		return encode(feed, false).getJson();
+	}
+
+	/**
+	 * @param feed feed to encode
+	 * @param encoding encoding requested by a peer, FeedRequest.ENCODING_JSON or FeedRequest.ENCODING_SMILE
+	 * @return the document to send to the peer: Smile if it was requested, is available and is smaller than JSON.
+	 * @throws IOException on failure to encode feed contents
+	 */
+	public String encode(Feed feed, String encoding) throws IOException {
+		return encode(feed, FeedRequest.ENCODING_SMILE.equals(encoding)).get(encoding);
+	}
+
+	/**
+	 * Encode the feed as JSON and, if requested, in the Smile encoding.  The contents of the feed are read once, so that
+	 * both documents hold the same sample.  The Smile document is only kept if it is smaller than the JSON document, so
+	 * peers that requested Smile never receive more bytes than peers that did not.
+	 *
+	 * @param feed feed to encode
+	 * @param smile true if a Smile document should be encoded
+	 * @return documents of the feed.
+	 * @throws IOException on failure to encode feed contents
+	 */
+	public synchronized Documents encode(Feed feed, boolean smile) throws IOException {
+		Object timestamp = feed.getTimestamp();
+		smile = smile && smileAvailable;
+
+		if (timestamp != null && lastDocuments != null && timestamp.equals(lastTimestamp) && feed.getName().equals(lastName)
+				&& (lastSmileEncoded || !smile)) {
+			reuses.incrementAndGet();
+			return lastDocuments;
+		}
+
+		Map<String, Object> contents = feed.getFeed();
+		
+		// Feeds may be updated in place while they are encoded; encode both documents from one copy.
+		if (smile && contents != null)
+			contents = new LinkedHashMap<String, Object>(contents);
+
+		String json = encodeJson(feed.getName(), contents);
+		String smileDocument = null;
+
+		if (smile) {
+			smileDocument = encodeSmile(feed.getName(), contents);
+
+			if (smileDocument.length() >= json.length())
+				smileDocument = null;
+		}
+
+		lastName = feed.getName();
+		lastTimestamp = timestamp;
+		lastDocuments = new Documents(json, smileDocument);
+		lastSmileEncoded = smile;
+
+		return lastDocuments;
+	}
+
+	/**
+	 * @param feed feed to encode
+	 * @return the feed contents in the Smile format, wrapped in a JSON document, regardless of size.
+	 * @throws IOException on failure to encode feed contents, or if the Smile encoding is not available
+	 */
+	public synchronized String encodeSmile(Feed feed) throws IOException {
+		if (!smileAvailable)
+			throw new IOException("Smile encoding is not available.");
+
+		return encodeSmile(feed.getName(), feed.getFeed());
+	}
+
+	/**
+	 * @param name name of feed
+	 * @param contents contents of feed
+	 * @return { "name": name, "feed": contents }
+	 * @throws IOException on failure to encode feed contents
+	 */
+	private String encodeJson(String name, Map<String, Object> contents) throws IOException {
+		buffer.reset();
+
+		JsonGenerator generator = factory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+		generator.writeStartObject();
+		generator.writeStringField("name", name);
+		generator.writeFieldName("feed");
+		generator.writeObject(contents);
+		generator.writeEndObject();
+		generator.close();
+		encodes.incrementAndGet();
+
+		return buffer.toString("UTF-8");
+	}
+
+	/**
+	 * @param name name of feed
+	 * @param contents contents of feed
+	 * @return { "name": name, "encoding": "smile", "data": base64 of contents in the Smile format }
+	 * @throws IOException on failure to encode feed contents
+	 */
+	private String encodeSmile(String name, Map<String, Object> contents) throws IOException {
+		binaryBuffer.reset();
+
+		JsonGenerator smile = Smile.factory.createJsonGenerator(binaryBuffer, JsonEncoding.UTF8);
+		smile.writeObject(contents);
+		smile.close();
+
+		buffer.reset();
+
+		JsonGenerator generator = factory.createJsonGenerator(buffer, JsonEncoding.UTF8);
+		generator.writeStartObject();
+		generator.writeStringField("name", name);
+		generator.writeStringField("encoding", FeedRequest.ENCODING_SMILE);
+		generator.writeBinaryField("data", binaryBuffer.toByteArray());
+		generator.writeEndObject();
+		generator.close();
+		encodes.incrementAndGet();
+
+		return buffer.toString("UTF-8");
+	}
+
+	/**
+	 * @return true if the Smile encoding can be used.
+	 */
+	public static boolean isSmileAvailable() {
+		return smileAvailable;
+	}
+
+	/**
+	 * @return number of documents encoded.
+	 */
+	public long getEncodes() {
+		return encodes.get();
+	}
+
+	/**
+	 * @return number of times the last document was returned without encoding.
+	 */
+	public long getReuses() {
+		return reuses.get();
+	}
+}
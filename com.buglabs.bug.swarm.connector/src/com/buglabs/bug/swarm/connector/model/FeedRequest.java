@@ -1,13 +1,14 @@
 package com.buglabs.bug.swarm.connector.model;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
-import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.map.ObjectMapper;
 
 /**
@@ -18,6 +19,21 @@ import org.codehaus.jackson.map.ObjectMapper;
  */
 public class FeedRequest {
 
+	/**
+	 * Value of the "mode" parameter for a stream that is sent when the feed changes rather than at a fixed frequency.
+	 */
+	public static final String MODE_ONCHANGE = "onchange";
+	
+	/**
+	 * Value of the "encoding" parameter for feed responses as JSON documents, the default.
+	 */
+	public static final String ENCODING_JSON = "json";
+	
+	/**
+	 * Value of the "encoding" parameter for feed responses in the Smile binary JSON format.
+	 */
+	public static final String ENCODING_SMILE = "smile";
+
 	/**
 	 * Type of feed.  Based on HTTP operations.
 	 *
@@ -25,7 +41,11 @@ public class FeedRequest {
 	public enum FeedType { 
 		get, put, post, delete;		
 	}
-	private static ObjectMapper mapper;
+	private static final FeedType[] FEED_TYPES = FeedType.values();
+	/**
+	 * Shared by all parsers; array parameters are read with the mapper set as codec.
+	 */
+	private static final JsonFactory factory = new ObjectMapper().getJsonFactory();
 	private final FeedType type;
 	private final String name;
 	private final Map<String, Object> params;
@@ -116,44 +136,141 @@ public class FeedRequest {
 	}	
 
 	/**
+	 * Parse a request with a streaming parser.  Only the "type", "feed" and "params" keys are read; other keys are 
+	 * skipped, and documents that are not requests, such as capabilities broadcasts, are rejected at their first key.
+	 * 
 	 * @param jsonString json document from server as a String
 	 * @return FeedRequest object or null if invalid or incomplete message.
 	 */
 	public static FeedRequest parseJSON(String jsonString) {
-		if (mapper == null)
-			mapper = new ObjectMapper();
-		
+		JsonParser parser = null;
 		
-		JsonNode jn;
 		try {
-			jn = mapper.readTree(jsonString);
+			parser = factory.createJsonParser(jsonString);
 			
-			if (jn.has("type") && jn.has("feed")) {
-				String type = jn.get("type").getTextValue();
-				String name = jn.get("feed").getTextValue();
-				Map<String, Object> frp = new HashMap<String, Object>();
-				if (jn.has("params")) {
-					for (Iterator<Entry<String, JsonNode>> jni = jn.get("params").getFields(); jni.hasNext();) {
-						Entry<String, JsonNode> pn = jni.next();
-						if (pn.getKey().equals("frequency"))
-							frp.put(pn.getKey(), pn.getValue().asInt());
-						else if (pn.getValue().isArray())
-							frp.put(pn.getKey(), mapper.readValue(pn.getValue(), List.class));
-						else
-							frp.put(pn.getKey(), pn.getValue().asText());
-					}
-				}
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				return null;
+			
+			FeedType type = null;
+			String name = null;
+			Map<String, Object> frp = null;
+			
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
 				
-				return new FeedRequest(type, name, frp);
+				if ("type".equals(field)) {
+					if (value != JsonToken.VALUE_STRING || (type = toFeedType(parser)) == null)
+						return null;
+				} else if ("feed".equals(field)) {
+					if (value != JsonToken.VALUE_STRING)
+						return null;
+					
+					name = parser.getText();
+				} else if ("params".equals(field) && value == JsonToken.START_OBJECT) {
+					frp = parseParams(parser);
+				} else if ("capabilities".equals(field)) {
+					return null;
+				} else {
+					parser.skipChildren();
+				}
 			}
 			
-		} catch (Exception e) {
-			e.printStackTrace();
+			if (type != null && name != null)
+				return new FeedRequest(type, name, frp == null ? new HashMap<String, Object>() : frp);
+		} catch (IOException e) {
 			// Squelch parsing error messages.		
-		} 
+		} finally {
+			if (parser != null)
+				try {
+					parser.close();
+				} catch (IOException e) {
+				}
+		}
 				
 		return null;
 	}
+	
+	/**
+	 * @param parser parser positioned at the value of "type"
+	 * @return type matching the value or null if it is not a known type.
+	 * @throws IOException on parse error
+	 */
+	private static FeedType toFeedType(JsonParser parser) throws IOException {
+		char[] text = parser.getTextCharacters();
+		int offset = parser.getTextOffset();
+		int length = parser.getTextLength();
+		
+		for (FeedType t : FEED_TYPES) {
+			String n = t.name();
+			
+			if (n.length() != length)
+				continue;
+			
+			int i = 0;
+			while (i < length && text[offset + i] == n.charAt(i))
+				i++;
+			
+			if (i == length)
+				return t;
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * @param parser parser positioned at the start of the params object
+	 * @return parameters, integer parameters as Integer, arrays as List and other values as String.
+	 * @throws IOException on parse error
+	 */
+	private static Map<String, Object> parseParams(JsonParser parser) throws IOException {
+		Map<String, Object> frp = new HashMap<String, Object>();
+		
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String key = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			
+			if ("frequency".equals(key) || "minInterval".equals(key) || "maxInterval".equals(key) || "batchWindow".equals(key))
+				frp.put(key, toInt(parser, value));
+			else if (value == JsonToken.START_ARRAY)
+				frp.put(key, parser.readValueAs(List.class));
+			else if (value == JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				frp.put(key, "");
+			} else
+				frp.put(key, parser.getText());
+		}
+		
+		return frp;
+	}
+	
+	/**
+	 * @param parser parser positioned at a value
+	 * @param value token of the value
+	 * @return the value as an int, or 0 if it is not a number.
+	 * @throws IOException on parse error
+	 */
+	private static int toInt(JsonParser parser, JsonToken value) throws IOException {
+		switch (value) {
+		case VALUE_NUMBER_INT:
+		case VALUE_NUMBER_FLOAT:
+			return parser.getIntValue();
+		case VALUE_STRING:
+			try {
+				return Integer.parseInt(parser.getText().trim());
+			} catch (NumberFormatException e) {
+				return 0;
+			}
+		case VALUE_TRUE:
+			return 1;
+		case START_ARRAY:
+		case START_OBJECT:
+			parser.skipChildren();
+			return 0;
+		default:
+			return 0;
+		}
+	}
 
 	/**
 	 * @return true if a stream request is made, false otherwise.
@@ -182,4 +299,69 @@ public class FeedRequest {
 		
 		return Integer.parseInt(params.get("frequency").toString());
 	}
+	
+	/**
+	 * A push stream request is made with { "mode": "onchange", "minInterval": 1, "maxInterval": 60 }.  Both intervals
+	 * are optional and use the same unit as frequency.
+	 * 
+	 * @return true if a stream is requested that sends the feed when it changes.
+	 */
+	public boolean isOnChange() {
+		return params != null && params.containsKey("mode") && MODE_ONCHANGE.equals(params.get("mode").toString());
+	}
+	
+	/**
+	 * @return the minimum interval between two updates of an onchange stream, or 0 if unspecified.
+	 */
+	public long getMinInterval() {
+		return getPositiveParam("minInterval");
+	}
+	
+	/**
+	 * @return the maximum interval without an update of an onchange stream, or 0 if unspecified.
+	 */
+	public long getMaxInterval() {
+		return getPositiveParam("maxInterval");
+	}
+	
+	/**
+	 * A requester that sets { "batchWindow": ms } receives all feed responses sent to it within the window as one 
+	 * message holding a JSON array.
+	 * 
+	 * @return the batching window in milliseconds, or 0 if unspecified.
+	 */
+	public long getBatchWindow() {
+		return getPositiveParam("batchWindow");
+	}
+	
+	/**
+	 * A requester that sets { "encoding": "smile" } receives feed contents in the Smile format, base64 encoded.
+	 * 
+	 * @return the requested encoding of feed responses, ENCODING_JSON if unspecified or unknown.
+	 */
+	public String getEncoding() {
+		if (params != null && params.containsKey("encoding") && ENCODING_SMILE.equalsIgnoreCase(params.get("encoding").toString()))
+			return ENCODING_SMILE;
+		
+		return ENCODING_JSON;
+	}
+	
+	/**
+	 * @param key parameter name
+	 * @return value of an integer parameter or 0 if it is not specified or not a positive integer.
+	 */
+	private long getPositiveParam(String key) {
+		if (params == null || !params.containsKey(key))
+			return 0;
+		
+		try {
+			int v = Integer.parseInt(params.get(key).toString());
+			
+			if (v > 0)
+				return v;
+		} catch (NumberFormatException e) {			
+		}
+		
+		return 0;
+	}
 }
\ No newline at end of file
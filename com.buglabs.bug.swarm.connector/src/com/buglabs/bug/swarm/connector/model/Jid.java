@@ -1,18 +1,38 @@
 package com.buglabs.bug.swarm.connector.model;
 
 import java.text.ParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
- * Represents an XMPP JID (user, host, resource).
+ * Represents an XMPP JID (user, host, resource).  JIDs are equal if their elements are equal, so they can be used as
+ * map keys.  JIDs of swarm peers should be obtained with valueOf(), which returns the same instance for an address
+ * that was recently seen.
  * 
  * @author kgilmer
  * 
  */
 public class Jid {
 
+	/**
+	 * Number of recently parsed JIDs kept by valueOf().
+	 */
+	private static final int CACHE_SIZE = 512;
+
+	private static final Map<String, Jid> cache = new LinkedHashMap<String, Jid>(CACHE_SIZE * 4 / 3 + 1, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Jid> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
 	private final String username;
 	private final String hostname;
 	private final String resource;
+	private String string;
+	private int hash;
 
 	/**
 	 * Construct a JID with the specific elements.
@@ -40,22 +60,44 @@ public class Jid {
 	 *             thrown on parse exception
 	 */
 	public Jid(final String rawJid) throws ParseException {
-		String[] elems = rawJid.split("@");
+		// The host starts after the first "@" and ends at the only "/" that follows it.
+		int at = rawJid.indexOf('@');
+		int slash = at < 0 ? -1 : rawJid.indexOf('/', at + 1);
 
-		if (elems.length < 2)
+		if (slash < 0 || slash == rawJid.length() - 1 || rawJid.indexOf('/', slash + 1) >= 0)
 			throw new ParseException("Invalid raw Jid: " + rawJid, 0);
 
-		this.username = elems[0];
+		this.username = rawJid.substring(0, at);
+		this.hostname = rawJid.substring(at + 1, slash);
+		this.resource = rawJid.substring(slash + 1);
+		this.string = rawJid;
+	}
+
+	/**
+	 * Parse a JID, returning the cached instance if the same JID was recently parsed.
+	 * 
+	 * @param rawJid
+	 *            JID in format of 'username@hostname/resource'
+	 * @return JID
+	 * @throws ParseException
+	 *             thrown on parse exception
+	 */
+	public static Jid valueOf(final String rawJid) throws ParseException {
+		Jid jid;
+
+		synchronized (cache) {
+			jid = cache.get(rawJid);
+		}
 
-		// String may contain multiple "@" chars, so only parse from the first
-		// occurrance.
-		elems = rawJid.substring(username.length() + 1).split("/");
+		if (jid == null) {
+			jid = new Jid(rawJid);
 
-		if (elems.length != 2)
-			throw new ParseException("Invalid raw Jid: " + rawJid, 0);
+			synchronized (cache) {
+				cache.put(rawJid, jid);
+			}
+		}
 
-		this.hostname = elems[0];
-		this.resource = elems[1];
+		return jid;
 	}
 
 	/**
@@ -79,8 +121,45 @@ public class Jid {
 		return resource;
 	}
 
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+
+		if (!(obj instanceof Jid))
+			return false;
+
+		Jid j = (Jid) obj;
+
+		return hashCode() == j.hashCode() && equals(username, j.username) && equals(hostname, j.hostname) 
+				&& equals(resource, j.resource);
+	}
+
+	private static boolean equals(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+
+		if (h == 0) {
+			h = toString().hashCode();
+			hash = h;
+		}
+
+		return h;
+	}
+
 	@Override
 	public String toString() {
-		return username + "@" + hostname + "/" + resource;
+		String s = string;
+
+		if (s == null) {
+			s = username + "@" + hostname + "/" + resource;
+			string = s;
+		}
+
+		return s;
 	}
 }
@@ -3,8 +3,15 @@ package com.buglabs.bug.swarm.connector.model;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.codehaus.jackson.map.ObjectMapper;
+import org.osgi.framework.ServiceReference;
 
 import com.buglabs.services.ws.IWSResponse;
 import com.buglabs.services.ws.PublicWSDefinition;
@@ -13,6 +20,13 @@ import com.buglabs.services.ws.PublicWSProvider;
 /**
  * Adapts PublicWSProvider to Feed.
  * 
+ * Results of callGet() are shared: callers asking for the same method and parameters while a call to the provider is
+ * in progress wait for that call rather than making their own, and the result is reused for the number of
+ * milliseconds set by the FEED_SERVICE_TTL_PROPERTY of the provider service.  Failed calls are not reused.
+ * 
+ * The feed of a provider is built from PublicWSProvider.discover() once, when the adapter is created.  FeedIndex keeps
+ * one adapter per provider registration, so a provider is discovered again only when its service is modified.
+ * 
  * @author kgilmer
  * 
  */
@@ -23,7 +37,40 @@ public class ServiceFeedAdapter extends Feed {
 	private static final int POST = 3;
 	private static final int DELETE = 4;
 	  
+	/**
+	 * OSGi service property key for the time in milliseconds the result of a web service call is reused.
+	 */
+	public static final String FEED_SERVICE_TTL_PROPERTY = "SWARM.FEED.TTL";
+	
+	/**
+	 * Result of a call, complete or in progress.
+	 */
+	private static final class Result extends FutureTask<String> {
+		private volatile long completed;
+
+		private Result(Callable<String> call) {
+			super(call);
+		}
+
+		@Override
+		protected void done() {
+			completed = System.currentTimeMillis();
+		}
+		
+		/**
+		 * @param ttl time to live in milliseconds
+		 * @return true if the call is in progress or completed less than ttl ago.
+		 */
+		private boolean isFresh(long ttl) {
+			return !isDone() || System.currentTimeMillis() - completed < ttl;
+		}
+	}
+	  
 	private final PublicWSProvider service;
+	private final ServiceReference reference;
+	private final ConcurrentMap<String, Result> results = new ConcurrentHashMap<String, Result>();
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong sharedCalls = new AtomicLong();
 	
 	private final static ObjectMapper mapper = new ObjectMapper();
 
@@ -32,8 +79,112 @@ public class ServiceFeedAdapter extends Feed {
 	 *            ws provider to adapt to a feed
 	 */
 	public ServiceFeedAdapter(final PublicWSProvider service) {
-		super(service.getPublicName(), adaptServiceToFeedMap(service));
+		this(service, null);
+	}
+	
+	/**
+	 * @param service
+	 *            ws provider to adapt to a feed
+	 * @param reference
+	 *            reference of the provider service, may be null
+	 */
+	public ServiceFeedAdapter(final PublicWSProvider service, final ServiceReference reference) {
+		super(service.getPublicName(), adaptServiceToFeedMap(service), reference);
 		this.service = service;
+		this.reference = reference;
+	}
+	
+	/**
+	 * @param parameters parameters for method
+	 * @return contents of the GET method if is text data
+	 * @throws IOException if unable to call method or error in call.
+	 */
+	public String callGet(final String parameters) throws IOException {
+		String key = GET + ":" + parameters;
+		long ttl = getTTL();
+		
+		while (true) {
+			Result result = results.get(key);
+			
+			if (result != null && result.isFresh(ttl)) {
+				sharedCalls.incrementAndGet();
+				return get(key, result);
+			}
+			
+			Result call = new Result(new Callable<String>() {
+
+				@Override
+				public String call() throws Exception {
+					return execute(parameters);
+				}
+			});
+			
+			if (result == null ? results.putIfAbsent(key, call) == null : results.replace(key, result, call)) {
+				calls.incrementAndGet();
+				call.run();
+				return get(key, call);
+			}
+		}
+	}
+	
+	/**
+	 * @param key key of result
+	 * @param result result of a call
+	 * @return value of the result, once the call has completed
+	 * @throws IOException if the call failed
+	 */
+	private String get(String key, Result result) throws IOException {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for " + service.getPublicName());
+		} catch (ExecutionException e) {
+			results.remove(key, result);
+			
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			
+			IOException ioe = new IOException("Unable to execute method.");
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+	
+	/**
+	 * @return time in milliseconds results are reused, 0 if results are only shared while a call is in progress.
+	 */
+	private long getTTL() {
+		if (reference == null)
+			return 0;
+		
+		Object ttl = reference.getProperty(FEED_SERVICE_TTL_PROPERTY);
+		
+		if (ttl instanceof Number)
+			return ((Number) ttl).longValue();
+		
+		if (ttl != null) {
+			try {
+				return Long.parseLong(ttl.toString().trim());
+			} catch (NumberFormatException e) {
+			}
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * @return number of calls made to the provider.
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+	
+	/**
+	 * @return number of callGet() calls answered with the result of another call.
+	 */
+	public long getSharedCalls() {
+		return sharedCalls.get();
 	}
 	
 	/**
@@ -41,7 +192,7 @@ public class ServiceFeedAdapter extends Feed {
 	 * @return contents of the GET method if is text data
 	 * @throws IOException if unable to call method or error in call.
 	 */
-	public String callGet(String parameters) throws IOException {
+	private String execute(String parameters) throws IOException {
 		IWSResponse response = service.execute(GET, parameters);
 		
 		if (response.getMimeType().indexOf("text") > -1) {
@@ -17,6 +17,7 @@ import org.osgi.util.tracker.ServiceTracker;
 import com.buglabs.bug.swarm.client.model.Configuration;
 import com.buglabs.bug.swarm.connector.BUGSwarmConnector;
 import com.buglabs.bug.swarm.connector.osgi.pub.IConnectorServiceStatus;
+import com.buglabs.bug.swarm.connector.transport.SwarmTransport;
 import com.buglabs.bug.swarm.connector.ui.ConfigInitRunnable;
 import com.buglabs.bug.swarm.connector.ui.SwarmConfigKeys;
 import com.buglabs.osgi.sewing.pub.ISewingService;
@@ -143,7 +144,15 @@ public class Activator implements BundleActivator, ManagedService, IConnectorSer
 					xmppPort
 					);
 			log.log(LogService.LOG_DEBUG, this.getClass().getSimpleName() + " connector configuration: " + nc);
-			connector = new BUGSwarmConnector(context, nc);
+			String transport = SwarmTransport.XMPP;
+			if (SwarmTransport.PARTICIPATION.equals(config.get(SwarmConfigKeys.CONFIG_KEY_BUGSWARM_TRANSPORT)))
+				transport = SwarmTransport.PARTICIPATION;
+			else if (config.get(SwarmConfigKeys.CONFIG_KEY_BUGSWARM_TRANSPORT) != null 
+					&& !SwarmTransport.XMPP.equals(config.get(SwarmConfigKeys.CONFIG_KEY_BUGSWARM_TRANSPORT)))
+				log.log(LogService.LOG_WARNING, "Unknown transport " + config.get(SwarmConfigKeys.CONFIG_KEY_BUGSWARM_TRANSPORT) 
+						+ ", using " + transport);
+			
+			connector = new BUGSwarmConnector(context, nc, transport);
 			connector.start();
 			return;
 		}
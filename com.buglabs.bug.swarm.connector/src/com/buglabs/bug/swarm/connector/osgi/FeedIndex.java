@@ -0,0 +1,197 @@
+package com.buglabs.bug.swarm.connector.osgi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+import org.osgi.util.tracker.ServiceTracker;
+import org.osgi.util.tracker.ServiceTrackerCustomizer;
+
+import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.ServiceFeedAdapter;
+import com.buglabs.services.ws.PublicWSProvider;
+
+/**
+ * Index of the feeds available on the device by feed name.  The index is maintained by a ServiceTracker
+ * for native (Map) feeds and web service (PublicWSProvider) feeds, so resolving a feed is a single lookup.
+ * The tracker holds one reference to each feed service until the service goes away or the index is closed.
+ *
+ * A native feed takes precedence over a web service with the same name.  A web service is discovered once per
+ * registration by its adapter, which is kept until the service is modified or goes away, or the index is closed.
+ *
+ * @author kgilmer
+ *
+ */
+public class FeedIndex implements ServiceTrackerCustomizer {
+
+	private final BundleContext context;
+	private final ServiceTracker tracker;
+	private final Map<String, Feed> nativeFeeds = new ConcurrentHashMap<String, Feed>();
+	private final Map<String, Feed> serviceFeeds = new ConcurrentHashMap<String, Feed>();
+	private final Map<ServiceReference, Feed> byReference = new HashMap<ServiceReference, Feed>();
+
+	/**
+	 * @param context BundleContext
+	 */
+	public FeedIndex(BundleContext context) {
+		this.context = context;
+
+		try {
+			this.tracker = new ServiceTracker(context, context.createFilter(
+					OSGiUtil.createServiceFilter(Map.class.getName(), PublicWSProvider.class.getName())), this);
+		} catch (InvalidSyntaxException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Start tracking feed services.
+	 */
+	public void open() {
+		tracker.open();
+	}
+
+	/**
+	 * Stop tracking feed services and release all service references.
+	 */
+	public void close() {
+		tracker.close();
+
+		synchronized (this) {
+			byReference.clear();
+			nativeFeeds.clear();
+			serviceFeeds.clear();
+		}
+	}
+
+	/**
+	 * @param name name of feed
+	 * @return Feed of type name or null if feed does not exist.
+	 */
+	public Feed getFeed(String name) {
+		Feed feed = nativeFeeds.get(name);
+
+		if (feed != null)
+			return feed;
+
+		return serviceFeeds.get(name);
+	}
+
+	/**
+	 * @return names of all indexed feeds.
+	 */
+	public List<String> getFeedNames() {
+		List<String> names = new ArrayList<String>(nativeFeeds.keySet());
+
+		for (String name : serviceFeeds.keySet())
+			if (!nativeFeeds.containsKey(name))
+				names.add(name);
+
+		return names;
+	}
+
+	@Override
+	public synchronized Object addingService(ServiceReference reference) {
+		Object service = context.getService(reference);
+
+		if (service instanceof PublicWSProvider) {
+			add(reference, new ServiceFeedAdapter((PublicWSProvider) service, reference));
+		} else if (getFeedName(reference) != null) {
+			add(reference, new Feed(getFeedName(reference), (Map<String, Object>) service, reference));
+		} else {
+			// A Map service that is not a feed.  The tracker offers it again if its properties are modified.
+			context.ungetService(reference);
+			return null;
+		}
+
+		return service;
+	}
+
+	@Override
+	public synchronized void modifiedService(ServiceReference reference, Object service) {
+		if (service instanceof PublicWSProvider) {
+			// Discover the service again, its operations may have changed.
+			if (byReference.containsKey(reference))
+				remove(reference);
+			
+			add(reference, new ServiceFeedAdapter((PublicWSProvider) service, reference));
+			return;
+		}
+
+		String name = getFeedName(reference);
+		Feed feed = byReference.get(reference);
+
+		if (feed != null && feed.getName().equals(name))
+			return;
+
+		// The feed has been named, renamed or unnamed.
+		if (feed != null)
+			remove(reference);
+
+		if (name != null)
+			add(reference, new Feed(name, (Map<String, Object>) service, reference));
+	}
+
+	@Override
+	public synchronized void removedService(ServiceReference reference, Object service) {
+		if (byReference.containsKey(reference))
+			remove(reference);
+
+		context.ungetService(reference);
+	}
+
+	/**
+	 * @param reference reference of feed service
+	 * @param feed feed of service
+	 */
+	private void add(ServiceReference reference, Feed feed) {
+		byReference.put(reference, feed);
+		indexOf(feed).put(feed.getName(), feed);
+	}
+
+	/**
+	 * @param reference reference of feed service
+	 */
+	private void remove(ServiceReference reference) {
+		Feed feed = byReference.remove(reference);
+		Map<String, Feed> index = indexOf(feed);
+
+		if (index.get(feed.getName()) != feed)
+			return;
+
+		index.remove(feed.getName());
+
+		// Another service may provide a feed of the same name.
+		for (Feed other : byReference.values())
+			if (other.getName().equals(feed.getName()) && indexOf(other) == index) {
+				index.put(other.getName(), other);
+				break;
+			}
+	}
+
+	/**
+	 * @param feed a feed
+	 * @return the index the feed belongs to.
+	 */
+	private Map<String, Feed> indexOf(Feed feed) {
+		return feed instanceof ServiceFeedAdapter ? serviceFeeds : nativeFeeds;
+	}
+
+	/**
+	 * @param reference reference of Map service
+	 * @return name of feed or null if service is not a feed.
+	 */
+	private static String getFeedName(ServiceReference reference) {
+		Object name = reference.getProperty(Feed.FEED_SERVICE_NAME_PROPERTY);
+
+		if (name == null)
+			return null;
+
+		return name.toString();
+	}
+}
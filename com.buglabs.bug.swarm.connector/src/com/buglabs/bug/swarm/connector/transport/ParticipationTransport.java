@@ -0,0 +1,299 @@
+package com.buglabs.bug.swarm.connector.transport;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.client.ISwarmJsonMessageListener;
+import com.buglabs.bug.swarm.client.ISwarmSession;
+import com.buglabs.bug.swarm.client.SwarmClientFactory;
+import com.buglabs.bug.swarm.client.model.Configuration;
+import com.buglabs.bug.swarm.client.model.Configuration.Protocol;
+import com.buglabs.bug.swarm.connector.model.Jid;
+import com.buglabs.bug.swarm.connector.osgi.Activator;
+import com.buglabs.bug.swarm.connector.xmpp.AbstractMessageHandler;
+import com.buglabs.bug.swarm.connector.xmpp.ConnectionSupervisor.ReconnectListener;
+import com.buglabs.bug.swarm.connector.xmpp.ISwarmServerRequestListener;
+import com.buglabs.bug.swarm.connector.xmpp.InboundDispatcher;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.DeliveryListener;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.OutboundMessage;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.Priority;
+import com.buglabs.bug.swarm.connector.xmpp.PresenceCoalescer;
+
+/**
+ * Transport using the chunked HTTP participation stream of the swarm server as a PRODUCTION session.  Messages are
+ * queued and written by the sender thread of an OutboundMessageQueue, as with XMPP.  The session reconnects by itself
+ * after a failure, so reconnect listeners are not notified, and feed responses are not batched.
+ *
+ * See http://developer.bugswarm.net/participation_api.html
+ *
+ * @author kgilmer
+ *
+ */
+public class ParticipationTransport implements SwarmTransport, ISwarmJsonMessageListener {
+
+	/**
+	 * Handles the requests received from the peers of one swarm.
+	 */
+	private static final class RequestHandler extends AbstractMessageHandler {
+
+		private RequestHandler(Jid jid, String swarmId, List<ISwarmServerRequestListener> requestListeners, InboundDispatcher dispatcher) {
+			super(jid, swarmId, requestListeners, dispatcher);
+		}
+
+		private void handle(String rawMessage, String sender) throws ParseException {
+			handleSwarmRequest(rawMessage, sender);
+		}
+
+		private void left(String sender) throws ParseException {
+			final Jid peer = Jid.valueOf(sender);
+
+			dispatch(sender, new Runnable() {
+
+				@Override
+				public void run() {
+					for (ISwarmServerRequestListener listener : requestListeners)
+						listener.cancelFeedRequests(peer, swarmId);
+				}
+			});
+		}
+	}
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final Configuration config;
+	private final Jid jid;
+	private final String swarmHost;
+	private final OutboundMessageQueue outbound;
+	private final InboundDispatcher dispatcher;
+	private final PresenceCoalescer presenceCoalescer;
+	private final List<ISwarmServerRequestListener> requestListeners = new CopyOnWriteArrayList<ISwarmServerRequestListener>();
+	private final ConcurrentMap<String, RequestHandler> handlers = new ConcurrentHashMap<String, RequestHandler>();
+	private volatile ISwarmSession session;
+
+	/**
+	 * @param config configuration of connector
+	 * @param queueCapacity maximum number of messages waiting to be sent
+	 * @param streamLimit maximum number of messages of one stream waiting to be sent to a recipient
+	 * @param dispatcher dispatcher that runs requests from swarm peers off the session reader thread
+	 */
+	public ParticipationTransport(Configuration config, int queueCapacity, int streamLimit, InboundDispatcher dispatcher) {
+		this.config = config;
+		this.dispatcher = dispatcher;
+		this.presenceCoalescer = new PresenceCoalescer(requestListeners);
+		this.jid = new Jid(config.getUsername(), config.getHostname(Protocol.XMPP), config.getResource());
+		this.swarmHost = "swarms." + config.getHostname(Protocol.XMPP);
+		this.outbound = new OutboundMessageQueue(new OutboundMessageQueue.MessageWriter() {
+
+			@Override
+			public void write(OutboundMessage message) throws Exception {
+				writeMessage(message);
+			}
+		}, queueCapacity, streamLimit);
+	}
+
+	@Override
+	public void connect(ISwarmServerRequestListener listener) throws Exception {
+		if (session == null) {
+			session = SwarmClientFactory.createProductionSession(config.getHostname(Protocol.HTTP), config.getParticipationAPIKey(),
+					config.getResource(), true, true);
+			session.addListener(this);
+			outbound.start();
+			dispatcher.start();
+			presenceCoalescer.start();
+		}
+
+		if (!requestListeners.contains(listener))
+			requestListeners.add(listener);
+	}
+
+	@Override
+	public void disconnect() {
+		ISwarmSession s = session;
+		session = null;
+		outbound.stop();
+		dispatcher.stop();
+		presenceCoalescer.stop();
+		handlers.clear();
+
+		if (s != null) {
+			s.removeListener(this);
+			s.close();
+		}
+	}
+
+	@Override
+	public boolean isConnected() {
+		ISwarmSession s = session;
+
+		return s != null && s.isConnected();
+	}
+
+	@Override
+	public void joinSwarm(String swarmId, ISwarmServerRequestListener listener) throws Exception {
+		getSession().join(swarmId, config.getResource());
+		handlers.put(swarmId, new RequestHandler(jid, swarmId, requestListeners, dispatcher));
+	}
+
+	@Override
+	public void leaveSwarm(String swarmId) {
+		handlers.remove(swarmId);
+		presenceCoalescer.removeSwarm(swarmId);
+
+		ISwarmSession s = session;
+
+		if (s == null)
+			return;
+
+		try {
+			s.leave(swarmId, config.getResource());
+		} catch (IOException e) {
+			Activator.getLog().log(LogService.LOG_ERROR, "Unable to send unavailable presence to swarm " + swarmId, e);
+		}
+	}
+
+	@Override
+	public void sendPublicMessage(String swarmId, String message) throws Exception {
+		outbound.offer(new OutboundMessage(swarmId, null, message, Priority.CONTROL, null));
+	}
+
+	@Override
+	public void sendPublicFeed(String swarmId, String document, String stream) throws Exception {
+		outbound.offer(new OutboundMessage(swarmId, null, document, Priority.DATA, stream));
+	}
+
+	@Override
+	public void sendPrivateMessage(String swarmId, String userId, String message) throws Exception {
+		outbound.offer(new OutboundMessage(swarmId, userId, message, Priority.CONTROL, null));
+	}
+
+	@Override
+	public void sendFeedToUser(Jid requestJid, String swarmId, String document, String stream, DeliveryListener listener) throws Exception {
+		outbound.offer(new OutboundMessage(swarmId, requestJid.toString(), document, Priority.DATA, stream, listener));
+	}
+
+	@Override
+	public void setBatchWindow(String swarmId, Jid recipient, long window) {
+		// Feed responses are not batched on the participation stream.
+	}
+
+	@Override
+	public void peerLeft(Jid peer, String swarmId) {
+		// No state is kept per peer.
+	}
+
+	@Override
+	public void addReconnectListener(ReconnectListener listener) {
+		// The session reconnects by itself.
+	}
+
+	/**
+	 * @return coalescer of the peers joining swarms, used to set the window within which joins are merged.
+	 */
+	public PresenceCoalescer getPresenceCoalescer() {
+		return presenceCoalescer;
+	}
+
+	/**
+	 * @return queue of messages waiting to be sent.
+	 */
+	public OutboundMessageQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	/**
+	 * Write a message to the session on the sender thread.
+	 *
+	 * @param message message to write
+	 * @throws Exception on failure to write message
+	 */
+	private void writeMessage(OutboundMessage message) throws Exception {
+		Map<String, ?> payload = mapper.readValue(message.getBody(), Map.class);
+
+		if (message.getRecipient() == null) {
+			getSession().send(payload, message.getSwarmId());
+		} else {
+			Map.Entry<String, String> to = new AbstractMap.SimpleEntry<String, String>(message.getSwarmId(),
+					Jid.valueOf(message.getRecipient()).getResource());
+			getSession().send(payload, Collections.singletonList(to));
+		}
+	}
+
+	private ISwarmSession getSession() {
+		ISwarmSession s = session;
+
+		if (s == null)
+			throw new IllegalStateException("Participation session is not connected.");
+
+		return s;
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @param resource id of resource
+	 * @return JID identifying a swarm peer, as it would be on the XMPP server.
+	 */
+	private String toJid(String swarmId, String resource) {
+		return swarmId + "@" + swarmHost + "/" + resource;
+	}
+
+	@Override
+	public void messageRecieved(Map<String, ?> payload, String fromSwarm, String fromResource, boolean isPublic) {
+		if (payload == null || fromSwarm == null || fromResource == null || fromResource.equals(config.getResource()))
+			return;
+
+		RequestHandler handler = handlers.get(fromSwarm);
+
+		if (handler == null)
+			return;
+
+		try {
+			handler.handle(mapper.writeValueAsString(payload), toJid(fromSwarm, fromResource));
+		} catch (Exception e) {
+			Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while handling message from " + fromResource
+					+ " in swarm " + fromSwarm, e);
+		}
+	}
+
+	@Override
+	public void presenceEvent(String fromSwarm, String fromResource, boolean isAvailable) {
+		if (fromSwarm == null || fromResource == null || fromResource.equals(config.getResource()))
+			return;
+
+		RequestHandler handler = handlers.get(fromSwarm);
+
+		if (handler == null)
+			return;
+
+		String peer = toJid(fromSwarm, fromResource);
+
+		// Joins are merged so that a burst of presence results in one feed list per swarm.
+		if (isAvailable) {
+			presenceCoalescer.joined(fromSwarm, peer);
+			return;
+		}
+
+		presenceCoalescer.left(fromSwarm, peer);
+
+		try {
+			handler.left(peer);
+		} catch (ParseException e) {
+			Activator.getLog().log(LogService.LOG_ERROR, "Unable to parse jid of " + fromResource);
+		}
+	}
+
+	@Override
+	public void exceptionOccurred(ExceptionType type, String message) {
+		Activator.getLog().log(LogService.LOG_WARNING, "Participation session error " + type + ": " + message);
+	}
+}
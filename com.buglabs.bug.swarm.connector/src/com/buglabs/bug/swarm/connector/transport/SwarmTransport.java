@@ -0,0 +1,123 @@
+package com.buglabs.bug.swarm.connector.transport;
+
+import com.buglabs.bug.swarm.connector.model.Jid;
+import com.buglabs.bug.swarm.connector.xmpp.ConnectionSupervisor.ReconnectListener;
+import com.buglabs.bug.swarm.connector.xmpp.ISwarmServerRequestListener;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.DeliveryListener;
+
+/**
+ * Connection of the connector to the swarm server.  A transport joins and leaves swarms, sends public and private
+ * messages to swarm peers, and passes the requests it receives from peers to an ISwarmServerRequestListener.
+ *
+ * Peers are identified by a JID of the form swarm@swarms.host/resource regardless of the transport.
+ *
+ * @author kgilmer
+ *
+ */
+public interface SwarmTransport {
+
+	/**
+	 * Name of the transport using the XMPP server.
+	 */
+	String XMPP = "xmpp";
+
+	/**
+	 * Name of the transport using the HTTP participation stream.
+	 */
+	String PARTICIPATION = "participation";
+
+	/**
+	 * Connect to the swarm server.
+	 *
+	 * @param listener listener of requests from swarm peers
+	 * @throws Exception on connection or authentication failure
+	 */
+	void connect(ISwarmServerRequestListener listener) throws Exception;
+
+	/**
+	 * Disconnect from the swarm server.
+	 */
+	void disconnect();
+
+	/**
+	 * @return true if the transport is connected to the swarm server.
+	 */
+	boolean isConnected();
+
+	/**
+	 * @param swarmId id of swarm to join
+	 * @param listener listener of requests from peers of the swarm
+	 * @throws Exception on failure to join swarm
+	 */
+	void joinSwarm(String swarmId, ISwarmServerRequestListener listener) throws Exception;
+
+	/**
+	 * @param swarmId id of swarm to leave
+	 */
+	void leaveSwarm(String swarmId);
+
+	/**
+	 * Queue a control message to all peers of a swarm.
+	 *
+	 * @param swarmId id of swarm
+	 * @param message JSON document
+	 * @throws Exception on failure to send message
+	 */
+	void sendPublicMessage(String swarmId, String message) throws Exception;
+
+	/**
+	 * Queue a feed update to all peers of a swarm.  Feed updates are sent after pending control messages, and a
+	 * pending update of a feed is replaced by a newer one.
+	 *
+	 * @param swarmId id of swarm
+	 * @param document feed as JSON document
+	 * @param stream name of the feed the document is a sample of
+	 * @throws Exception on failure to send document
+	 */
+	void sendPublicFeed(String swarmId, String document, String stream) throws Exception;
+
+	/**
+	 * Queue a control message to one peer of a swarm.
+	 *
+	 * @param swarmId id of swarm
+	 * @param userId full JID of peer
+	 * @param message JSON document
+	 * @throws Exception on failure to send message
+	 */
+	void sendPrivateMessage(String swarmId, String userId, String message) throws Exception;
+
+	/**
+	 * Queue a feed response.  Feed responses are sent after pending control messages.
+	 *
+	 * @param requestJid JID of requester
+	 * @param swarmId id of swarm
+	 * @param document feed as JSON document
+	 * @param stream name of the stream the document is a sample of, or null if the document is not part of a stream
+	 * @param listener notified when the document has been sent or dropped, may be null
+	 * @throws Exception on failure to send document
+	 */
+	void sendFeedToUser(Jid requestJid, String swarmId, String document, String stream, DeliveryListener listener) throws Exception;
+
+	/**
+	 * Set the window within which feed responses to a recipient are merged into one message.  Transports that do not
+	 * batch responses ignore the window.
+	 *
+	 * @param swarmId id of swarm
+	 * @param recipient JID of recipient, or null to set the window of all recipients in the swarm
+	 * @param window window in milliseconds, 0 to disable batching
+	 */
+	void setBatchWindow(String swarmId, Jid recipient, long window);
+
+	/**
+	 * Release any state kept for a peer that has left a swarm.
+	 *
+	 * @param peer JID of peer
+	 * @param swarmId id of swarm
+	 */
+	void peerLeft(Jid peer, String swarmId);
+
+	/**
+	 * @param listener listener notified when the connection has been re-established after a failure
+	 */
+	void addReconnectListener(ReconnectListener listener);
+}
@@ -88,4 +88,9 @@ public final class SwarmConfigKeys {
 	 * Nickname used to identify the resource in management ui.
 	 */
 	public static final String CONFIG_KEY_BUGSWARM_DEVICE_LABEL = "com.buglabs.bugswarm.devicelabel";
+
+	/**
+	 * Transport used to communicate with swarm peers, "xmpp" (default) or "participation".
+	 */
+	public static final String CONFIG_KEY_BUGSWARM_TRANSPORT = "com.buglabs.bugswarm.transport";
 }
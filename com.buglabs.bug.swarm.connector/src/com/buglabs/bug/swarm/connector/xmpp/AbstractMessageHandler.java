@@ -21,10 +21,12 @@ public abstract class AbstractMessageHandler {
 	protected final Jid jid;
 	protected final String swarmId;
 	protected final List<ISwarmServerRequestListener> requestListeners;
+	protected final InboundDispatcher dispatcher;
 	
 
 	/**
-	 * Construct the handler with a jid, swarmid, and list of local listeners.
+	 * Construct the handler with a jid, swarmid, and list of local listeners.  Requests are handled on the thread
+	 * that receives them.
 	 * 
 	 * @param jid
 	 *            local jid
@@ -32,17 +34,49 @@ public abstract class AbstractMessageHandler {
 	 *            swarm associated with handler
 	 * @param requestListeners
 	 *            list of ISwarmServerRequestListeners
-	 * @throws Exception
-	 *             thrown if OSGi service binding fails
 	 */
 	protected AbstractMessageHandler(final Jid jid, final String swarmId, 
 			final List<ISwarmServerRequestListener> requestListeners) {
+		this(jid, swarmId, requestListeners, null);
+	}
+	
+	/**
+	 * Construct the handler with a jid, swarmid, and list of local listeners.
+	 * 
+	 * @param jid
+	 *            local jid
+	 * @param swarmId
+	 *            swarm associated with handler
+	 * @param requestListeners
+	 *            list of ISwarmServerRequestListeners
+	 * @param dispatcher
+	 *            dispatcher that runs requests off the receiving thread, or null to handle requests on the receiving thread
+	 */
+	protected AbstractMessageHandler(final Jid jid, final String swarmId, 
+			final List<ISwarmServerRequestListener> requestListeners, final InboundDispatcher dispatcher) {
 		if (jid == null || swarmId == null || requestListeners == null)
 			throw new IllegalArgumentException("Input parameter to constructor is null.");
 
 		this.jid = jid;
 		this.swarmId = swarmId;
 		this.requestListeners = requestListeners;
+		this.dispatcher = dispatcher;
+	}
+	
+	/**
+	 * Run a request after the pending requests of the same peer.
+	 * 
+	 * @param sender JID of originator of request
+	 * @param request request to run
+	 */
+	protected void dispatch(String sender, Runnable request) {
+		if (dispatcher == null) {
+			request.run();
+			return;
+		}
+		
+		if (!dispatcher.dispatch(sender, request))
+			Activator.getLog().log(LogService.LOG_WARNING, "Too many pending requests from " + sender + ", request rejected.");
 	}
 	
 	/**
@@ -57,7 +91,7 @@ public abstract class AbstractMessageHandler {
 		if (rawMessage.startsWith("{\"capabilities"))
 			return;
 		
-		FeedRequest freq = FeedRequest.parseJSON(rawMessage);
+		final FeedRequest freq = FeedRequest.parseJSON(rawMessage);
 		
 		if (freq == null) {
 			Activator.getLog().log(LogService.LOG_WARNING, 
@@ -65,26 +99,49 @@ public abstract class AbstractMessageHandler {
 			return;
 		}
 
+		final Jid requestJid = Jid.valueOf(sender);
+		
 		if (freq.isFeedListRequest()) {
-			for (ISwarmServerRequestListener listener : requestListeners) {
-				listener.feedListRequest(new Jid(sender), swarmId);
-			}
+			dispatch(sender, new Runnable() {
+				
+				@Override
+				public void run() {
+					for (ISwarmServerRequestListener listener : requestListeners)
+						listener.feedListRequest(requestJid, swarmId);
+				}
+			});
 		} else if (freq.isFeedRequest()) {
-			for (ISwarmServerRequestListener listener : requestListeners) {				
-				listener.feedRequest(new Jid(sender), swarmId, freq);				
-			}
+			dispatch(sender, new Runnable() {
+				
+				@Override
+				public void run() {
+					for (ISwarmServerRequestListener listener : requestListeners)
+						listener.feedRequest(requestJid, swarmId, freq);
+				}
+			});
 		} else if (freq.isFeedMetaRequest()) {
-			for (ISwarmServerRequestListener listener : requestListeners) {
-				listener.feedMetaRequest(freq, swarmId);					
-			}
+			dispatch(sender, new Runnable() {
+				
+				@Override
+				public void run() {
+					for (ISwarmServerRequestListener listener : requestListeners)
+						listener.feedMetaRequest(freq, swarmId);
+				}
+			});
 		} 
 	}
 	
 	protected void handleError(Message message, String participant) {
-		if (message.getError().toString().startsWith("item-not-found(404) Recipient is not in the conference room")) {
+		if (message.getError() != null && message.getError().toString().startsWith("item-not-found(404) Recipient is not in the conference room")) {
 			try {
-				Jid j = new Jid(participant);
-				requestListeners.get(0).cancelFeedRequests(j, swarmId);
+				final Jid j = Jid.valueOf(participant);
+				dispatch(participant, new Runnable() {
+					
+					@Override
+					public void run() {
+						requestListeners.get(0).cancelFeedRequests(j, swarmId);
+					}
+				});
 			} catch (ParseException e) {
 				Activator.getLog().log(LogService.LOG_ERROR, "Unable to parse jid");
 			}
@@ -0,0 +1,258 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of private chats by peer and swarm.  The cache holds at most a fixed number of chats, evicting the least recently
+ * used one when full, and chats that have not been used for the idle timeout are discarded.  Chats can be invalidated by
+ * peer or by swarm in time proportional to the number of matching chats.
+ *
+ * All methods are thread safe.
+ *
+ * @param <V> type of cached chat
+ *
+ * @author kgilmer
+ *
+ */
+public class ChatCache<V> {
+
+	/**
+	 * Default maximum number of cached chats.
+	 */
+	public static final int DEFAULT_CAPACITY = 128;
+
+	/**
+	 * Default time after which an unused chat is discarded.
+	 */
+	public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 10 * 60 * 1000;
+
+	/**
+	 * A cached chat.
+	 */
+	private static final class Entry<V> {
+		private final String peer;
+		private final String swarmId;
+		private final V chat;
+		private long lastAccess;
+
+		private Entry(String peer, String swarmId, V chat, long now) {
+			this.peer = peer;
+			this.swarmId = swarmId;
+			this.chat = chat;
+			this.lastAccess = now;
+		}
+	}
+
+	private final int capacity;
+	private final long idleTimeout;
+
+	/**
+	 * Entries in least recently used order.
+	 */
+	private final LinkedHashMap<String, Entry<V>> entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true);
+	private final Map<String, Set<String>> byPeer = new HashMap<String, Set<String>>();
+	private final Map<String, Set<String>> bySwarm = new HashMap<String, Set<String>>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+	private long expirations = 0;
+
+	/**
+	 * Create a cache with default capacity and idle timeout.
+	 */
+	public ChatCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_IDLE_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * @param capacity maximum number of cached chats
+	 * @param idleTimeout time in milliseconds after which an unused chat is discarded
+	 */
+	public ChatCache(int capacity, long idleTimeout) {
+		if (capacity < 1 || idleTimeout <= 0)
+			throw new IllegalArgumentException("Invalid cache parameter.");
+
+		this.capacity = capacity;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @param peer full JID of peer
+	 * @param swarmId id of swarm
+	 * @return cached chat or null if there is no chat, or it has been idle for too long.
+	 */
+	public synchronized V get(String peer, String swarmId) {
+		long now = System.currentTimeMillis();
+		expire(now);
+
+		Entry<V> e = entries.get(key(peer, swarmId));
+
+		if (e == null) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		e.lastAccess = now;
+		return e.chat;
+	}
+
+	/**
+	 * Cache a chat, evicting the least recently used one if the cache is full.
+	 *
+	 * @param peer full JID of peer
+	 * @param swarmId id of swarm
+	 * @param chat chat with peer in swarm
+	 */
+	public synchronized void put(String peer, String swarmId, V chat) {
+		long now = System.currentTimeMillis();
+		expire(now);
+
+		String key = key(peer, swarmId);
+
+		if (entries.containsKey(key))
+			remove(key);
+
+		if (entries.size() >= capacity) {
+			remove(entries.keySet().iterator().next());
+			evictions++;
+		}
+
+		entries.put(key, new Entry<V>(peer, swarmId, chat, now));
+		index(byPeer, peer, key);
+		index(bySwarm, swarmId, key);
+	}
+
+	/**
+	 * @param peer full JID of peer
+	 * @return number of chats removed.
+	 */
+	public synchronized int invalidatePeer(String peer) {
+		return removeAll(byPeer.get(peer));
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return number of chats removed.
+	 */
+	public synchronized int invalidateSwarm(String swarmId) {
+		return removeAll(bySwarm.get(swarmId));
+	}
+
+	/**
+	 * Remove all chats.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		byPeer.clear();
+		bySwarm.clear();
+	}
+
+	/**
+	 * @return number of cached chats.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of lookups that found a chat.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of lookups that did not find a chat.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of chats evicted because the cache was full.
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * @return number of chats discarded because they were idle.
+	 */
+	public synchronized long getExpirations() {
+		return expirations;
+	}
+
+	/**
+	 * Discard idle chats.  As entries are in access order, idle entries are at the head.
+	 *
+	 * @param now current time
+	 */
+	private void expire(long now) {
+		for (Iterator<Entry<V>> i = entries.values().iterator(); i.hasNext();) {
+			Entry<V> e = i.next();
+
+			if (now - e.lastAccess < idleTimeout)
+				return;
+
+			i.remove();
+			unindex(byPeer, e.peer, key(e.peer, e.swarmId));
+			unindex(bySwarm, e.swarmId, key(e.peer, e.swarmId));
+			expirations++;
+		}
+	}
+
+	private int removeAll(Set<String> keys) {
+		if (keys == null)
+			return 0;
+
+		int count = 0;
+		for (String key : keys.toArray(new String[keys.size()])) {
+			remove(key);
+			count++;
+		}
+
+		return count;
+	}
+
+	private void remove(String key) {
+		Entry<V> e = entries.remove(key);
+
+		if (e != null) {
+			unindex(byPeer, e.peer, key);
+			unindex(bySwarm, e.swarmId, key);
+		}
+	}
+
+	private static String key(String peer, String swarmId) {
+		return peer + "|" + swarmId;
+	}
+
+	private static void index(Map<String, Set<String>> index, String indexKey, String key) {
+		Set<String> keys = index.get(indexKey);
+
+		if (keys == null) {
+			keys = new HashSet<String>();
+			index.put(indexKey, keys);
+		}
+
+		keys.add(key);
+	}
+
+	private static void unindex(Map<String, Set<String>> index, String indexKey, String key) {
+		Set<String> keys = index.get(indexKey);
+
+		if (keys != null) {
+			keys.remove(key);
+
+			if (keys.isEmpty())
+				index.remove(indexKey);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jivesoftware.smack.ConnectionListener;
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.connector.osgi.Activator;
+
+/**
+ * Keeps the XMPP connection of a SwarmXMPPClient alive.  A dead connection is detected either by the connection
+ * reporting an error or by a periodic check, and the client is then reconnected with exponential backoff and jitter.
+ * Once reconnected, the client rejoins its swarms and the registered listeners are notified so that they can
+ * restore their state.  Swarms that could not be rejoined do not fail the reconnection; they are retried with
+ * backoff on the new connection.
+ *
+ * Smack's own reconnection is disabled on connections supervised by this class.
+ *
+ * @author kgilmer
+ *
+ */
+public class ConnectionSupervisor implements ConnectionListener {
+
+	/**
+	 * Notified after the connection has been re-established.
+	 */
+	public interface ReconnectListener {
+		/**
+		 * Called once the client has reconnected and rejoined its swarms.
+		 */
+		void reconnected();
+	}
+
+	/**
+	 * Interval between connection checks.
+	 */
+	private static final long CHECK_INTERVAL_MILLIS = 15000;
+
+	/**
+	 * Backoff before the first reconnection attempt.
+	 */
+	private static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+	/**
+	 * Largest backoff between reconnection attempts.
+	 */
+	private static final long MAX_BACKOFF_MILLIS = 300000;
+
+	private final SwarmXMPPClient client;
+	private final List<ReconnectListener> listeners = new CopyOnWriteArrayList<ReconnectListener>();
+	private final Random random = new Random();
+
+	private ScheduledExecutorService executor;
+	private volatile boolean running = false;
+	private boolean reconnecting = false;
+	private int attempts = 0;
+	private long downSince = 0;
+	private long rejoinGeneration = 0;
+
+	private final AtomicLong disconnects = new AtomicLong();
+	private final AtomicLong reconnects = new AtomicLong();
+	private final AtomicLong failedAttempts = new AtomicLong();
+	private final AtomicLong downtime = new AtomicLong();
+
+	/**
+	 * @param client client to supervise
+	 */
+	public ConnectionSupervisor(SwarmXMPPClient client) {
+		this.client = client;
+	}
+
+	/**
+	 * Start supervising the connection.
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+
+		running = true;
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bugswarm-xmpp-supervisor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+		executor.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				if (!client.isConnected())
+					disconnected("connection check failed");
+			}
+		}, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop supervising the connection.  Must be called before the connection is closed intentionally.
+	 */
+	public synchronized void stop() {
+		running = false;
+		reconnecting = false;
+
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * @param listener listener to notify after reconnection
+	 */
+	public void addReconnectListener(ReconnectListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * @param listener listener to remove
+	 */
+	public void removeReconnectListener(ReconnectListener listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void connectionClosed() {
+		disconnected("connection closed by server");
+	}
+
+	@Override
+	public void connectionClosedOnError(Exception e) {
+		disconnected("connection error: " + e.getMessage());
+	}
+
+	@Override
+	public void reconnectingIn(int seconds) {
+		// Smack reconnection is disabled.
+	}
+
+	@Override
+	public void reconnectionSuccessful() {
+		// Smack reconnection is disabled.
+	}
+
+	@Override
+	public void reconnectionFailed(Exception e) {
+		// Smack reconnection is disabled.
+	}
+
+	/**
+	 * Begin reconnecting if not already doing so.
+	 *
+	 * @param reason description of the failure
+	 */
+	private synchronized void disconnected(String reason) {
+		if (!running || reconnecting)
+			return;
+
+		Activator.getLog().log(LogService.LOG_WARNING, "XMPP connection lost (" + reason + "), reconnecting.");
+
+		reconnecting = true;
+		attempts = 0;
+		downSince = System.currentTimeMillis();
+		disconnects.incrementAndGet();
+		schedule(INITIAL_BACKOFF_MILLIS);
+	}
+
+	/**
+	 * Schedule a reconnection attempt.  Caller must hold lock.
+	 *
+	 * @param backoff backoff in milliseconds, the actual delay is chosen at random between half and all of it
+	 */
+	private void schedule(long backoff) {
+		long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+
+		executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				attempt();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Try to reconnect, scheduling the next attempt on failure.
+	 */
+	private void attempt() {
+		synchronized (this) {
+			if (!running || !reconnecting)
+				return;
+
+			attempts++;
+		}
+
+		try {
+			client.reconnect();
+		} catch (Exception e) {
+			failedAttempts.incrementAndGet();
+
+			synchronized (this) {
+				if (!running)
+					return;
+
+				long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(attempts, 20));
+				Activator.getLog().log(LogService.LOG_WARNING, "XMPP reconnection attempt " + attempts + " failed, retrying in about "
+						+ backoff + "ms.", e);
+				schedule(backoff);
+			}
+
+			return;
+		}
+
+		long down;
+		synchronized (this) {
+			reconnecting = false;
+			down = System.currentTimeMillis() - downSince;
+			downSince = 0;
+		}
+
+		reconnects.incrementAndGet();
+		downtime.addAndGet(down);
+		Activator.getLog().log(LogService.LOG_INFO, "XMPP connection re-established after " + down + "ms and " + attempts + " attempts.");
+
+		for (ReconnectListener listener : listeners) {
+			try {
+				listener.reconnected();
+			} catch (Exception e) {
+				Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while restoring state after reconnection.", e);
+			}
+		}
+		
+		if (!client.hasPendingRejoins())
+			return;
+		
+		synchronized (this) {
+			if (running)
+				scheduleRejoin(++rejoinGeneration, INITIAL_BACKOFF_MILLIS);
+		}
+	}
+
+	/**
+	 * Schedule an attempt to rejoin the swarms that could not be rejoined on reconnection.  Caller must hold lock.
+	 *
+	 * @param generation generation of the rejoin attempts, attempts of an older reconnection stop
+	 * @param backoff backoff in milliseconds
+	 */
+	private void scheduleRejoin(final long generation, final long backoff) {
+		long delay = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+
+		executor.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				synchronized (ConnectionSupervisor.this) {
+					if (!running || reconnecting || generation != rejoinGeneration)
+						return;
+				}
+
+				if (client.rejoin())
+					return;
+
+				synchronized (ConnectionSupervisor.this) {
+					if (running && !reconnecting && generation == rejoinGeneration)
+						scheduleRejoin(generation, Math.min(MAX_BACKOFF_MILLIS, backoff * 2));
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return true if the connection is down and being re-established.
+	 */
+	public synchronized boolean isReconnecting() {
+		return reconnecting;
+	}
+
+	/**
+	 * @return number of times the connection has been lost.
+	 */
+	public long getDisconnects() {
+		return disconnects.get();
+	}
+
+	/**
+	 * @return number of successful reconnections.
+	 */
+	public long getReconnects() {
+		return reconnects.get();
+	}
+
+	/**
+	 * @return number of reconnection attempts that failed.
+	 */
+	public long getFailedAttempts() {
+		return failedAttempts.get();
+	}
+
+	/**
+	 * @return total time in milliseconds the connection has been down, including the current outage.
+	 */
+	public synchronized long getDowntime() {
+		long current = downSince == 0 ? 0 : System.currentTimeMillis() - downSince;
+
+		return downtime.get() + current;
+	}
+}
@@ -1,5 +1,7 @@
 package com.buglabs.bug.swarm.connector.xmpp;
 
+import java.util.List;
+
 import org.jivesoftware.smack.Chat;
 
 import com.buglabs.bug.swarm.connector.model.FeedRequest;
@@ -65,6 +67,14 @@ public interface ISwarmServerRequestListener {
 	
 	void addMemberSwarm(String swarmId);
 
+	/**
+	 * Peers have joined a swarm.  Joins received within a short window are notified together, see PresenceCoalescer.
+	 * 
+	 * @param swarmId id of swarm
+	 * @param members JIDs of peers that joined
+	 */
+	void membersJoined(String swarmId, List<Jid> members);
+
 	/**
 	 * Cancel any/all feed requests going to specific user.
 	 * 
@@ -72,4 +82,11 @@ public interface ISwarmServerRequestListener {
 	 * @param swarmId id of swarm 
 	 */
 	void cancelFeedRequests(Jid jid, String swarmId);
+
+	/**
+	 * This client has left a swarm.  Cancel all feeds going to peers of the swarm.
+	 * 
+	 * @param swarmId id of swarm
+	 */
+	void swarmLeft(String swarmId);
 }
@@ -0,0 +1,230 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.connector.osgi.Activator;
+
+/**
+ * Runs the requests received from swarm peers on a pool of worker threads, so that a slow request does not hold up the
+ * thread delivering inbound messages.  Requests of one peer are run one at a time in the order they were received, and
+ * requests of different peers run in parallel.  Each peer has a bounded queue of pending requests; requests beyond
+ * that bound are rejected.
+ *
+ * Until the dispatcher is started, requests are run on the calling thread.
+ *
+ * @author kgilmer
+ *
+ */
+public class InboundDispatcher {
+
+	/**
+	 * Bundle context property to define the number of worker threads.
+	 */
+	public static final String WORKER_COUNT_PROPERTY = "com.buglabs.bugswarm.inbound.workers";
+
+	/**
+	 * Bundle context property to define the maximum number of pending requests per peer.
+	 */
+	public static final String QUEUE_SIZE_PROPERTY = "com.buglabs.bugswarm.inbound.queuesize";
+
+	/**
+	 * Default number of worker threads.
+	 */
+	public static final int DEFAULT_WORKER_COUNT = 2;
+
+	/**
+	 * Default maximum number of pending requests per peer.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 16;
+
+	/**
+	 * Pending requests of one peer.  Drained by at most one worker at a time.
+	 */
+	private final class PeerQueue implements Runnable {
+		private final String peer;
+		private final LinkedList<Runnable> requests = new LinkedList<Runnable>();
+
+		private PeerQueue(String peer) {
+			this.peer = peer;
+		}
+
+		@Override
+		public void run() {
+			Runnable request;
+
+			while ((request = next(this)) != null) {
+				try {
+					request.run();
+					completed.incrementAndGet();
+				} catch (Exception e) {
+					failures.incrementAndGet();
+					Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while handling request from " + peer, e);
+				}
+			}
+		}
+	}
+
+	private final int workers;
+	private final int queueSize;
+	private final Map<String, PeerQueue> queues = new HashMap<String, PeerQueue>();
+	private ExecutorService executor;
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong dispatched = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * @param workers number of worker threads
+	 * @param queueSize maximum number of pending requests per peer
+	 */
+	public InboundDispatcher(int workers, int queueSize) {
+		if (workers < 1 || queueSize < 1)
+			throw new IllegalArgumentException("Invalid dispatcher parameter.");
+
+		this.workers = workers;
+		this.queueSize = queueSize;
+	}
+
+	/**
+	 * Start the worker threads.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+
+		executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					private final AtomicInteger count = new AtomicInteger();
+
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "bugswarm-inbound-" + count.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+	}
+
+	/**
+	 * Stop the worker threads.  Pending requests are discarded.
+	 */
+	public synchronized void stop() {
+		if (executor == null)
+			return;
+
+		executor.shutdownNow();
+		executor = null;
+
+		for (PeerQueue queue : queues.values())
+			queue.requests.clear();
+
+		queues.clear();
+		pending.set(0);
+	}
+
+	/**
+	 * Run a request after the pending requests of the same peer.
+	 *
+	 * @param peer identity of the peer the request is from
+	 * @param request request to run
+	 * @return true if the request has been run or queued, false if it was rejected because the queue of the peer is full.
+	 */
+	public boolean dispatch(String peer, Runnable request) {
+		synchronized (this) {
+			if (executor != null) {
+				PeerQueue queue = queues.get(peer);
+
+				if (queue == null) {
+					queue = new PeerQueue(peer);
+					queues.put(peer, queue);
+
+					try {
+						executor.execute(queue);
+					} catch (RejectedExecutionException e) {
+						queues.remove(peer);
+						rejected.incrementAndGet();
+						return false;
+					}
+				} else if (queue.requests.size() >= queueSize) {
+					rejected.incrementAndGet();
+					return false;
+				}
+
+				queue.requests.add(request);
+				pending.incrementAndGet();
+				dispatched.incrementAndGet();
+				return true;
+			}
+		}
+
+		dispatched.incrementAndGet();
+		request.run();
+		completed.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @param queue queue of a peer
+	 * @return the next request of the peer, or null if there is none, in which case the queue is released.
+	 */
+	private synchronized Runnable next(PeerQueue queue) {
+		if (queue.requests.isEmpty()) {
+			if (queues.get(queue.peer) == queue)
+				queues.remove(queue.peer);
+
+			return null;
+		}
+
+		pending.decrementAndGet();
+		return queue.requests.removeFirst();
+	}
+
+	/**
+	 * @return number of requests waiting to be run.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * @return number of requests accepted.
+	 */
+	public long getDispatched() {
+		return dispatched.get();
+	}
+
+	/**
+	 * @return number of requests run.
+	 */
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	/**
+	 * @return number of requests rejected because the queue of the peer was full.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return number of requests that failed with an exception.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+}
@@ -0,0 +1,369 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.DeliveryListener;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.OutboundMessage;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.Priority;
+
+/**
+ * Merges the feed responses to a recipient into one message.  When a batching window is set for a recipient, or for the
+ * swarm the recipient is in, the first response starts the window and every response queued for the recipient until the
+ * window closes is sent with it as a JSON array: [ response, response, ... ].  Recipients without a window receive each
+ * response as its own message.
+ *
+ * Within a batch, a newer sample of a stream replaces the older one.  A recipient has at most one batch in the outbound
+ * queue: while it waits to be sent, responses keep being added to the next batch, which is sent when the queued one has
+ * been written.  On a congested link, older samples are thus replaced per stream, and a sample is never dropped because
+ * a batch holding other streams replaced the batch it was in.
+ *
+ * @author kgilmer
+ *
+ */
+public class MessageBatcher {
+
+	/**
+	 * Bundle context property to define the batching window in milliseconds of all swarms.  The window of one swarm is
+	 * defined by appending "." and the swarm id to the property name.
+	 */
+	public static final String WINDOW_PROPERTY = "com.buglabs.bugswarm.batch.window";
+
+	/**
+	 * Largest number of responses in a batch.  A full batch is sent without waiting for the window to close.
+	 */
+	public static final int MAX_BATCH_SIZE = 32;
+
+	/**
+	 * Responses waiting for the window of a recipient to close.
+	 */
+	private final class Batch implements Runnable {
+		private final String key;
+		private final String swarmId;
+		private final String recipient;
+		private final List<OutboundMessage> messages = new ArrayList<OutboundMessage>();
+		/**
+		 * True if the window of the batch has closed while the previous batch of the recipient was queued.
+		 */
+		private boolean due;
+
+		private Batch(String key, String swarmId, String recipient) {
+			this.key = key;
+			this.swarmId = swarmId;
+			this.recipient = recipient;
+		}
+
+		@Override
+		public void run() {
+			flush(this);
+		}
+	}
+
+	private final OutboundMessageQueue queue;
+	private final ConcurrentMap<String, Long> swarmWindows = new ConcurrentHashMap<String, Long>();
+	private final ConcurrentMap<String, Long> recipientWindows = new ConcurrentHashMap<String, Long>();
+	private final Map<String, Batch> pending = new HashMap<String, Batch>();
+	/**
+	 * Keys of the recipients that have a batch in the outbound queue.
+	 */
+	private final Set<String> queued = new HashSet<String>();
+	private ScheduledExecutorService executor;
+
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong batched = new AtomicLong();
+
+	/**
+	 * @param queue queue batches are sent to
+	 */
+	public MessageBatcher(OutboundMessageQueue queue) {
+		this.queue = queue;
+	}
+
+	/**
+	 * Start the timer that closes batching windows.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bugswarm-xmpp-batcher");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Stop the timer.  Pending batches are discarded.
+	 */
+	public synchronized void stop() {
+		if (executor == null)
+			return;
+
+		executor.shutdownNow();
+		executor = null;
+		pending.clear();
+		queued.clear();
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @param window batching window in milliseconds of recipients in the swarm, 0 to disable batching
+	 */
+	public void setSwarmWindow(String swarmId, long window) {
+		if (window > 0)
+			swarmWindows.put(swarmId, window);
+		else
+			swarmWindows.remove(swarmId);
+	}
+
+	/**
+	 * @param recipient full jid of recipient
+	 * @param swarmId id of swarm
+	 * @param window batching window in milliseconds of the recipient, 0 to use the window of the swarm
+	 */
+	public void setRecipientWindow(String recipient, String swarmId, long window) {
+		if (window > 0)
+			recipientWindows.put(key(recipient, swarmId), window);
+		else
+			recipientWindows.remove(key(recipient, swarmId));
+	}
+
+	/**
+	 * Forget the batching window of a recipient and send its pending responses.
+	 *
+	 * @param recipient full jid of recipient
+	 * @param swarmId id of swarm
+	 */
+	public void removeRecipient(String recipient, String swarmId) {
+		String key = key(recipient, swarmId);
+		Batch batch;
+
+		recipientWindows.remove(key);
+
+		synchronized (this) {
+			batch = pending.get(key);
+		}
+
+		if (batch != null)
+			flush(batch);
+	}
+
+	/**
+	 * Forget the batching windows of a swarm and discard its pending responses, when the swarm is left.
+	 *
+	 * @param swarmId id of swarm
+	 */
+	public void removeSwarm(String swarmId) {
+		swarmWindows.remove(swarmId);
+
+		for (Iterator<String> i = recipientWindows.keySet().iterator(); i.hasNext();)
+			if (i.next().endsWith("|" + swarmId))
+				i.remove();
+
+		synchronized (this) {
+			for (Iterator<Batch> i = pending.values().iterator(); i.hasNext();)
+				if (i.next().swarmId.equals(swarmId))
+					i.remove();
+			
+			for (Iterator<String> i = queued.iterator(); i.hasNext();)
+				if (i.next().endsWith("|" + swarmId))
+					i.remove();
+		}
+	}
+
+	/**
+	 * @param recipient full jid of recipient
+	 * @param swarmId id of swarm
+	 * @return batching window in milliseconds or 0 if responses to the recipient are not batched.
+	 */
+	public long getWindow(String recipient, String swarmId) {
+		Long window = recipientWindows.get(key(recipient, swarmId));
+
+		if (window == null)
+			window = swarmWindows.get(swarmId);
+
+		return window == null ? 0 : window;
+	}
+
+	/**
+	 * Queue a feed response, batching it if the recipient has a batching window.
+	 *
+	 * @param message private data message
+	 * @return false if the message was rejected by the queue.
+	 */
+	public boolean offer(OutboundMessage message) {
+		long window = message.getRecipient() == null ? 0 : getWindow(message.getRecipient(), message.getSwarmId());
+		List<OutboundMessage> replaced = new ArrayList<OutboundMessage>(1);
+		Batch full = null;
+
+		synchronized (this) {
+			if (window <= 0 || executor == null)
+				window = 0;
+			else
+				full = add(message, window, replaced);
+		}
+
+		if (window == 0)
+			return queue.offer(message);
+
+		for (OutboundMessage m : replaced)
+			if (m.getListener() != null)
+				m.getListener().dropped(m);
+
+		if (full != null)
+			flush(full);
+
+		return true;
+	}
+
+	/**
+	 * Add a message to the batch of its recipient, starting a batch if there is none.  Caller must hold lock.
+	 *
+	 * @param message message to add
+	 * @param window batching window of recipient
+	 * @param replaced list older samples of the stream of the message are added to
+	 * @return the batch if it is full, otherwise null.
+	 */
+	private Batch add(OutboundMessage message, long window, List<OutboundMessage> replaced) {
+		String key = key(message.getRecipient(), message.getSwarmId());
+		Batch batch = pending.get(key);
+
+		if (batch == null) {
+			batch = new Batch(key, message.getSwarmId(), message.getRecipient());
+			pending.put(key, batch);
+			executor.schedule(batch, window, TimeUnit.MILLISECONDS);
+		}
+
+		if (message.getStream() != null) {
+			for (Iterator<OutboundMessage> i = batch.messages.iterator(); i.hasNext();) {
+				OutboundMessage m = i.next();
+
+				if (message.getStream().equals(m.getStream())) {
+					i.remove();
+					replaced.add(m);
+				}
+			}
+		}
+
+		batch.messages.add(message);
+
+		return batch.messages.size() >= MAX_BATCH_SIZE ? batch : null;
+	}
+
+	/**
+	 * Send a batch if it is still pending.  If the previous batch of the recipient is still queued, the batch is sent
+	 * once the previous one has been written.
+	 *
+	 * @param batch batch to send
+	 */
+	private void flush(final Batch batch) {
+		final List<OutboundMessage> messages;
+
+		synchronized (this) {
+			if (pending.get(batch.key) != batch)
+				return;
+
+			if (queued.contains(batch.key)) {
+				batch.due = true;
+				return;
+			}
+
+			pending.remove(batch.key);
+			messages = new ArrayList<OutboundMessage>(batch.messages);
+
+			if (messages.isEmpty())
+				return;
+
+			queued.add(batch.key);
+		}
+
+		StringBuilder body = new StringBuilder("[");
+
+		for (OutboundMessage m : messages) {
+			if (body.length() > 1)
+				body.append(',');
+
+			body.append(m.getBody());
+		}
+
+		body.append(']');
+		batches.incrementAndGet();
+		batched.addAndGet(messages.size());
+
+		queue.offer(new OutboundMessage(batch.swarmId, batch.recipient, body.toString(), Priority.DATA, null,
+				new DeliveryListener() {
+
+					@Override
+					public void delivered(OutboundMessage message, long latency) {
+						for (OutboundMessage m : messages)
+							if (m.getListener() != null)
+								m.getListener().delivered(m, latency);
+
+						sent(batch.key);
+					}
+
+					@Override
+					public void dropped(OutboundMessage message) {
+						for (OutboundMessage m : messages)
+							if (m.getListener() != null)
+								m.getListener().dropped(m);
+
+						sent(batch.key);
+					}
+				}));
+	}
+
+	/**
+	 * The queued batch of a recipient has been written or dropped.  Send the next batch if its window has closed.
+	 *
+	 * @param key key of recipient
+	 */
+	private void sent(String key) {
+		Batch next;
+
+		synchronized (this) {
+			queued.remove(key);
+			next = pending.get(key);
+
+			if (next == null || !next.due)
+				return;
+		}
+
+		flush(next);
+	}
+
+	private static String key(String recipient, String swarmId) {
+		return recipient + "|" + swarmId;
+	}
+
+	/**
+	 * @return number of batches sent.
+	 */
+	public long getBatches() {
+		return batches.get();
+	}
+
+	/**
+	 * @return number of responses sent in batches.
+	 */
+	public long getBatched() {
+		return batched.get();
+	}
+}
@@ -0,0 +1,198 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.jivesoftware.smack.filter.PacketFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.Packet;
+
+/**
+ * Sorts the messages received in swarms before they are handed to a listener, so that traffic the connector does not act
+ * on is dropped by smack without being parsed or logged.  Messages are classified by the sender and a scan of the top
+ * level keys of the body, and only requests sent to the room and errors are accepted.  The number of messages of each class is counted.
+ *
+ * @author kgilmer
+ *
+ */
+public class MessageClassifier implements PacketFilter {
+
+	/**
+	 * Class of a swarm message.
+	 */
+	public enum MessageClass {
+		/**
+		 * Message sent by this client, echoed by the swarm.
+		 */
+		SELF,
+		/**
+		 * Broadcast from another peer, such as its capabilities or a feed update.
+		 */
+		BROADCAST,
+		/**
+		 * Request to this client, a JSON document with a top level "type" key.
+		 */
+		REQUEST,
+		/**
+		 * Error reported by the server.
+		 */
+		ERROR,
+		/**
+		 * Anything else, such as private messages, messages without a body or that are not JSON documents.
+		 */
+		OTHER;
+	}
+
+	/**
+	 * Body of the status message the server sends when joining a non anonymous room.
+	 */
+	private static final String NON_ANONYMOUS_ROOM = "This room is not anonymous";
+
+	private final String nickname;
+	private final AtomicLongArray counts = new AtomicLongArray(MessageClass.values().length);
+
+	/**
+	 * @param nickname nickname of this client in swarms
+	 */
+	public MessageClassifier(String nickname) {
+		this.nickname = nickname;
+	}
+
+	@Override
+	public boolean accept(Packet packet) {
+		MessageClass c = classify(packet);
+		counts.incrementAndGet(c.ordinal());
+
+		return c == MessageClass.REQUEST || c == MessageClass.ERROR;
+	}
+
+	/**
+	 * @param packet received packet
+	 * @return class of packet
+	 */
+	public MessageClass classify(Packet packet) {
+		if (!(packet instanceof Message))
+			return MessageClass.OTHER;
+
+		Message m = (Message) packet;
+
+		if (m.getError() != null || m.getType() == Message.Type.error)
+			return MessageClass.ERROR;
+
+		// Private messages from occupants of the room are handled by the private chat with the occupant.
+		if (m.getType() != Message.Type.groupchat)
+			return MessageClass.OTHER;
+
+		if (isFromSelf(m.getFrom()))
+			return MessageClass.SELF;
+
+		String body = m.getBody();
+
+		if (body == null)
+			return MessageClass.OTHER;
+
+		if (body.equals(NON_ANONYMOUS_ROOM))
+			return MessageClass.ERROR;
+
+		return classifyBody(body);
+	}
+
+	/**
+	 * @param messageClass class of message
+	 * @return number of messages of the class seen by the filter.
+	 */
+	public long getCount(MessageClass messageClass) {
+		return counts.get(messageClass.ordinal());
+	}
+
+	/**
+	 * @param from room JID of sender, swarm@swarms.host/nickname
+	 * @return true if the nickname of the sender is the nickname of this client.
+	 */
+	private boolean isFromSelf(String from) {
+		if (from == null)
+			return false;
+
+		int start = from.length() - nickname.length();
+
+		return start > 0 && from.charAt(start - 1) == '/' && from.endsWith(nickname);
+	}
+
+	/**
+	 * Scan the top level keys of a JSON document without parsing it.
+	 *
+	 * @param body message body
+	 * @return class of message
+	 */
+	static MessageClass classifyBody(String body) {
+		int len = body.length();
+		int start = 0;
+
+		while (start < len && Character.isWhitespace(body.charAt(start)))
+			start++;
+
+		if (start == len || body.charAt(start) != '{')
+			return MessageClass.OTHER;
+
+		int depth = 1;
+		int keys = 0;
+		boolean inString = false;
+		boolean expectKey = true;
+
+		for (int i = start + 1; i < len && depth > 0; ++i) {
+			char c = body.charAt(i);
+
+			if (inString) {
+				if (c == '\\')
+					++i;
+				else if (c == '"')
+					inString = false;
+
+				continue;
+			}
+
+			switch (c) {
+			case '{':
+			case '[':
+				depth++;
+				break;
+			case '}':
+			case ']':
+				depth--;
+				break;
+			case ',':
+				expectKey = depth == 1;
+				break;
+			case '"':
+				if (expectKey) {
+					if (isKey(body, i, "type"))
+						return MessageClass.REQUEST;
+
+					// Capabilities documents are the most frequent broadcast and have a single key.
+					if (keys++ == 0 && isKey(body, i, "capabilities"))
+						return MessageClass.BROADCAST;
+
+					expectKey = false;
+				}
+
+				inString = true;
+				break;
+			default:
+				break;
+			}
+		}
+
+		return MessageClass.BROADCAST;
+	}
+
+	/**
+	 * @param body message body
+	 * @param quote index of the opening quote of a key
+	 * @param key key to compare with
+	 * @return true if the key at the index is the given key.
+	 */
+	private static boolean isKey(String body, int quote, String key) {
+		int end = quote + 1 + key.length();
+
+		return end < body.length() && body.charAt(end) == '"' && body.regionMatches(quote + 1, key, 0, key.length());
+	}
+}
@@ -0,0 +1,423 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.connector.osgi.Activator;
+
+/**
+ * Bounded queue of outbound XMPP messages, drained by a single sender thread so that callers never block on the network.
+ *
+ * Control messages (capabilities, feed lists) are always sent before data messages (feed responses).  Data messages that
+ * belong to a stream are limited to a number of pending messages per stream and recipient; when a new sample is queued
+ * beyond that limit the oldest pending sample of the stream is dropped, so a congested link sheds stale samples rather than
+ * building a backlog.  When the queue is full the oldest pending stream sample is dropped to make room, and if there is
+ * none the new message is rejected.
+ *
+ * @author kgilmer
+ *
+ */
+public class OutboundMessageQueue implements Runnable {
+
+	/**
+	 * Bundle context property to define the maximum number of pending messages.
+	 */
+	public static final String CAPACITY_PROPERTY = "com.buglabs.bugswarm.outbound.capacity";
+
+	/**
+	 * Bundle context property to define the maximum number of pending messages per stream and recipient.
+	 */
+	public static final String STREAM_LIMIT_PROPERTY = "com.buglabs.bugswarm.outbound.streamlimit";
+
+	/**
+	 * Default maximum number of pending messages.
+	 */
+	public static final int DEFAULT_CAPACITY = 256;
+
+	/**
+	 * Default maximum number of pending messages per stream and recipient.
+	 */
+	public static final int DEFAULT_STREAM_LIMIT = 1;
+
+	/**
+	 * Time to wait for the sender thread on stop.
+	 */
+	private static final long STOP_TIMEOUT_MILLIS = 2000;
+
+	/**
+	 * Priority class of a message.
+	 */
+	public enum Priority {
+		/**
+		 * Protocol and state messages, sent before any data.
+		 */
+		CONTROL,
+		/**
+		 * Feed data.
+		 */
+		DATA;
+	}
+
+	/**
+	 * Writes messages to the connection.
+	 */
+	public interface MessageWriter {
+		/**
+		 * @param message message to write
+		 * @throws Exception on failure to write message
+		 */
+		void write(OutboundMessage message) throws Exception;
+	}
+
+	/**
+	 * Notified of the outcome of a message.  Called on the thread that sent or dropped the message, without any queue lock held.
+	 */
+	public interface DeliveryListener {
+		/**
+		 * @param message message that has been written to the connection
+		 * @param latency time in milliseconds between creation of the message and the completion of the write
+		 */
+		void delivered(OutboundMessage message, long latency);
+
+		/**
+		 * @param message message that has been dropped or could not be written
+		 */
+		void dropped(OutboundMessage message);
+	}
+
+	/**
+	 * A message waiting to be sent.
+	 */
+	public static final class OutboundMessage {
+		private final String swarmId;
+		private final String recipient;
+		private final String body;
+		private final Priority priority;
+		private final String stream;
+		private final String streamKey;
+		private final DeliveryListener listener;
+		private final long created = System.currentTimeMillis();
+
+		/**
+		 * @param swarmId id of swarm
+		 * @param recipient full jid of recipient of a private message, or null for a public swarm message
+		 * @param body message body
+		 * @param priority priority class
+		 * @param stream name of the stream the message belongs to, or null if the message must not be dropped in favor of a newer one
+		 */
+		public OutboundMessage(String swarmId, String recipient, String body, Priority priority, String stream) {
+			this(swarmId, recipient, body, priority, stream, null);
+		}
+
+		/**
+		 * @param swarmId id of swarm
+		 * @param recipient full jid of recipient of a private message, or null for a public swarm message
+		 * @param body message body
+		 * @param priority priority class
+		 * @param stream name of the stream the message belongs to, or null if the message must not be dropped in favor of a newer one
+		 * @param listener listener notified when the message is delivered or dropped, may be null
+		 */
+		public OutboundMessage(String swarmId, String recipient, String body, Priority priority, String stream, DeliveryListener listener) {
+			if (swarmId == null || body == null || priority == null)
+				throw new IllegalArgumentException("Input parameter is null.");
+
+			this.swarmId = swarmId;
+			this.recipient = recipient;
+			this.body = body;
+			this.priority = priority;
+			this.stream = stream;
+			this.streamKey = stream == null ? null : recipient + "|" + swarmId + "|" + stream;
+			this.listener = listener;
+		}
+
+		/**
+		 * @return id of swarm
+		 */
+		public String getSwarmId() {
+			return swarmId;
+		}
+
+		/**
+		 * @return full jid of recipient or null for a public message
+		 */
+		public String getRecipient() {
+			return recipient;
+		}
+
+		/**
+		 * @return message body
+		 */
+		public String getBody() {
+			return body;
+		}
+
+		/**
+		 * @return priority class
+		 */
+		public Priority getPriority() {
+			return priority;
+		}
+
+		/**
+		 * @return name of the stream the message belongs to, or null
+		 */
+		public String getStream() {
+			return stream;
+		}
+
+		/**
+		 * @return listener notified of the outcome of the message, or null
+		 */
+		public DeliveryListener getListener() {
+			return listener;
+		}
+
+		/**
+		 * @return time the message was created
+		 */
+		public long getCreated() {
+			return created;
+		}
+	}
+
+	private final MessageWriter writer;
+	private final int capacity;
+	private final int streamLimit;
+
+	private final LinkedList<OutboundMessage> control = new LinkedList<OutboundMessage>();
+	private final LinkedList<OutboundMessage> data = new LinkedList<OutboundMessage>();
+	private final Map<String, Integer> pendingPerStream = new HashMap<String, Integer>();
+
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	private Thread thread;
+	private volatile boolean running = false;
+
+	/**
+	 * @param writer writes messages to the connection
+	 * @param capacity maximum number of pending messages
+	 * @param streamLimit maximum number of pending messages per stream and recipient
+	 */
+	public OutboundMessageQueue(MessageWriter writer, int capacity, int streamLimit) {
+		if (writer == null || capacity < 1 || streamLimit < 1)
+			throw new IllegalArgumentException("Invalid queue parameter.");
+
+		this.writer = writer;
+		this.capacity = capacity;
+		this.streamLimit = streamLimit;
+	}
+
+	/**
+	 * Start the sender thread.
+	 */
+	public synchronized void start() {
+		if (running)
+			return;
+
+		running = true;
+		thread = new Thread(this, "bugswarm-xmpp-sender");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stop the sender thread.  Pending messages are discarded.
+	 */
+	public void stop() {
+		Thread t;
+
+		synchronized (this) {
+			if (!running)
+				return;
+
+			running = false;
+			control.clear();
+			data.clear();
+			pendingPerStream.clear();
+			notifyAll();
+			t = thread;
+			thread = null;
+		}
+
+		if (t != Thread.currentThread()) {
+			try {
+				t.join(STOP_TIMEOUT_MILLIS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Queue a message for sending.
+	 *
+	 * @param message message to send
+	 * @return true if the message was queued, false if it was rejected because the queue is full.
+	 */
+	public boolean offer(OutboundMessage message) {
+		List<OutboundMessage> removed = new ArrayList<OutboundMessage>(1);
+
+		try {
+			synchronized (this) {
+				if (message.streamKey != null && pending(message.streamKey) >= streamLimit)
+					removeOldest(message.streamKey, removed);
+
+				if (size() >= capacity && !removeOldest(null, removed)) {
+					rejected.incrementAndGet();
+					removed.add(message);
+					Activator.getLog().log(LogService.LOG_WARNING, "Outbound queue is full, rejected message to "
+							+ (message.recipient == null ? message.swarmId : message.recipient));
+					return false;
+				}
+
+				if (message.priority == Priority.CONTROL)
+					control.add(message);
+				else
+					data.add(message);
+
+				if (message.streamKey != null)
+					pendingPerStream.put(message.streamKey, pending(message.streamKey) + 1);
+
+				notifyAll();
+				return true;
+			}
+		} finally {
+			for (OutboundMessage m : removed)
+				if (m.listener != null)
+					m.listener.dropped(m);
+		}
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			OutboundMessage message;
+
+			try {
+				message = take();
+			} catch (InterruptedException e) {
+				return;
+			}
+
+			if (message == null)
+				return;
+
+			try {
+				writer.write(message);
+				sent.incrementAndGet();
+
+				if (message.listener != null)
+					message.listener.delivered(message, System.currentTimeMillis() - message.created);
+			} catch (Exception e) {
+				failures.incrementAndGet();
+				Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while sending message to "
+						+ (message.recipient == null ? message.swarmId : message.recipient), e);
+
+				if (message.listener != null)
+					message.listener.dropped(message);
+			}
+		}
+	}
+
+	/**
+	 * @return the next message to send, waiting if necessary, or null if the queue has been stopped.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private synchronized OutboundMessage take() throws InterruptedException {
+		while (running && control.isEmpty() && data.isEmpty())
+			wait();
+
+		if (!running)
+			return null;
+
+		OutboundMessage message = control.isEmpty() ? data.removeFirst() : control.removeFirst();
+
+		if (message.streamKey != null)
+			decrement(message.streamKey);
+
+		return message;
+	}
+
+	/**
+	 * Remove the oldest pending data message of a stream.  Caller must hold lock.
+	 *
+	 * @param streamKey key of stream, or null for the oldest message of any stream
+	 * @param removed list the removed message is added to
+	 * @return true if a message was removed.
+	 */
+	private boolean removeOldest(String streamKey, List<OutboundMessage> removed) {
+		for (Iterator<OutboundMessage> i = data.iterator(); i.hasNext();) {
+			OutboundMessage m = i.next();
+
+			if (m.streamKey != null && (streamKey == null || streamKey.equals(m.streamKey))) {
+				i.remove();
+				decrement(m.streamKey);
+				dropped.incrementAndGet();
+				removed.add(m);
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private int pending(String streamKey) {
+		Integer count = pendingPerStream.get(streamKey);
+
+		return count == null ? 0 : count;
+	}
+
+	private void decrement(String streamKey) {
+		int count = pending(streamKey) - 1;
+
+		if (count > 0)
+			pendingPerStream.put(streamKey, count);
+		else
+			pendingPerStream.remove(streamKey);
+	}
+
+	/**
+	 * @return number of pending messages.
+	 */
+	public synchronized int size() {
+		return control.size() + data.size();
+	}
+
+	/**
+	 * @return number of messages sent.
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	/**
+	 * @return number of stale stream messages dropped in favor of newer ones.
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return number of messages rejected because the queue was full.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * @return number of messages that could not be written to the connection.
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+}
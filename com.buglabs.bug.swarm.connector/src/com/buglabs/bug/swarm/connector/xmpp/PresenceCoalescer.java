@@ -0,0 +1,228 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.connector.model.Jid;
+import com.buglabs.bug.swarm.connector.osgi.Activator;
+
+/**
+ * Merges the peers that join a swarm within a window, so that a burst of presence, such as when all peers rejoin after a
+ * server restart, results in one notification per swarm rather than one per peer.  The first join in a swarm starts the
+ * window; when it closes, the listeners are notified of all peers that joined and are still present.
+ *
+ * With a window of 0, or until the coalescer is started, each join is notified on the calling thread.
+ *
+ * @author kgilmer
+ *
+ */
+public class PresenceCoalescer {
+
+	/**
+	 * Bundle context property to define the window in milliseconds within which joins are merged.
+	 */
+	public static final String WINDOW_PROPERTY = "com.buglabs.bugswarm.presence.window";
+
+	/**
+	 * Default window in milliseconds.
+	 */
+	public static final long DEFAULT_WINDOW = 1000;
+
+	/**
+	 * Peers that joined a swarm in the current window.
+	 */
+	private final class Joins implements Runnable {
+		private final String swarmId;
+		private final Set<String> members = new LinkedHashSet<String>();
+
+		private Joins(String swarmId) {
+			this.swarmId = swarmId;
+		}
+
+		@Override
+		public void run() {
+			flush(this);
+		}
+	}
+
+	private final List<ISwarmServerRequestListener> requestListeners;
+	private final Map<String, Joins> pending = new HashMap<String, Joins>();
+	private volatile long window = DEFAULT_WINDOW;
+	private ScheduledExecutorService executor;
+
+	private final AtomicLong joins = new AtomicLong();
+	private final AtomicLong notifications = new AtomicLong();
+
+	/**
+	 * @param requestListeners listeners notified of joins
+	 */
+	public PresenceCoalescer(List<ISwarmServerRequestListener> requestListeners) {
+		this.requestListeners = requestListeners;
+	}
+
+	/**
+	 * Start the timer that closes windows.
+	 */
+	public synchronized void start() {
+		if (executor != null)
+			return;
+
+		executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "bugswarm-xmpp-presence");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Stop the timer.  Pending joins are discarded.
+	 */
+	public synchronized void stop() {
+		if (executor == null)
+			return;
+
+		executor.shutdownNow();
+		executor = null;
+		pending.clear();
+	}
+
+	/**
+	 * @param window window in milliseconds, 0 to notify each join immediately
+	 */
+	public void setWindow(long window) {
+		this.window = Math.max(0, window);
+	}
+
+	/**
+	 * @return window in milliseconds.
+	 */
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @param member room JID of peer that joined
+	 */
+	public void joined(String swarmId, String member) {
+		Joins now = null;
+
+		joins.incrementAndGet();
+
+		synchronized (this) {
+			if (executor == null || window == 0) {
+				now = new Joins(swarmId);
+				now.members.add(member);
+			} else {
+				Joins j = pending.get(swarmId);
+
+				if (j == null) {
+					j = new Joins(swarmId);
+					pending.put(swarmId, j);
+					executor.schedule(j, window, TimeUnit.MILLISECONDS);
+				}
+
+				j.members.add(member);
+			}
+		}
+
+		if (now != null)
+			notify(now.swarmId, now.members);
+	}
+
+	/**
+	 * Forget a peer that left before the window closed.
+	 *
+	 * @param swarmId id of swarm
+	 * @param member room JID of peer that left
+	 */
+	public synchronized void left(String swarmId, String member) {
+		Joins j = pending.get(swarmId);
+
+		if (j != null)
+			j.members.remove(member);
+	}
+
+	/**
+	 * Discard pending joins of a swarm, when the swarm is left.
+	 *
+	 * @param swarmId id of swarm
+	 */
+	public synchronized void removeSwarm(String swarmId) {
+		pending.remove(swarmId);
+	}
+
+	/**
+	 * Notify the joins of a window if it is still pending.
+	 *
+	 * @param j joins of a window
+	 */
+	private void flush(Joins j) {
+		List<String> members;
+
+		synchronized (this) {
+			if (pending.get(j.swarmId) != j)
+				return;
+
+			pending.remove(j.swarmId);
+			members = new ArrayList<String>(j.members);
+		}
+
+		notify(j.swarmId, members);
+	}
+
+	private void notify(String swarmId, Iterable<String> members) {
+		List<Jid> jids = new ArrayList<Jid>();
+
+		for (String member : members) {
+			try {
+				jids.add(Jid.valueOf(member));
+			} catch (ParseException e) {
+				Activator.getLog().log(LogService.LOG_ERROR, "Unable to parse jid of " + member);
+			}
+		}
+
+		if (jids.isEmpty())
+			return;
+
+		notifications.incrementAndGet();
+
+		for (ISwarmServerRequestListener listener : requestListeners) {
+			try {
+				listener.membersJoined(swarmId, jids);
+			} catch (RuntimeException e) {
+				Activator.getLog().log(LogService.LOG_ERROR, "Error occurred while handling members joining swarm " + swarmId, e);
+			}
+		}
+	}
+
+	/**
+	 * @return number of joins received.
+	 */
+	public long getJoins() {
+		return joins.get();
+	}
+
+	/**
+	 * @return number of notifications sent to listeners.
+	 */
+	public long getNotifications() {
+		return notifications.get();
+	}
+}
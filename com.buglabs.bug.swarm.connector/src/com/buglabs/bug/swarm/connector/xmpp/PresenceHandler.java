@@ -20,8 +20,9 @@ public class PresenceHandler extends AbstractMessageHandler implements PacketLis
 
 	private final SwarmXMPPClient swarmXMPPClient;
 
-	protected PresenceHandler(Jid jid, String swarmId, List<ISwarmServerRequestListener> requestListeners, SwarmXMPPClient swarmXMPPClient) throws Exception {
-		super(jid, swarmId, requestListeners);
+	protected PresenceHandler(Jid jid, String swarmId, List<ISwarmServerRequestListener> requestListeners, SwarmXMPPClient swarmXMPPClient, 
+			InboundDispatcher dispatcher) throws Exception {
+		super(jid, swarmId, requestListeners, dispatcher);
 		this.swarmXMPPClient = swarmXMPPClient;
 	}
 
@@ -30,31 +31,43 @@ public class PresenceHandler extends AbstractMessageHandler implements PacketLis
 		if (!(packet instanceof Presence)) 
 			return;
 			
-		Presence p = (Presence) packet;
+		final Presence p = (Presence) packet;
 		
-		try {
-			if (p.isAvailable())
-				handleMemberJoin(p);
-			else 
-				handleMemberLeave(p);		
-		} catch (ParseException e) {
-			e.printStackTrace();
+		if (p.isAvailable()) {
+			swarmXMPPClient.getOccupancy().joined(swarmId, p.getFrom());
+			
+			// Joins are merged so that a burst of presence results in one feed list per swarm.
+			if (!isFromSelf(p))
+				swarmXMPPClient.getPresenceCoalescer().joined(swarmId, p.getFrom());
+			
+			return;
 		}
+		
+		swarmXMPPClient.getOccupancy().left(swarmId, p.getFrom());
+		swarmXMPPClient.getPresenceCoalescer().left(swarmId, p.getFrom());
+		
+		// Presence is dispatched with the requests of the peer so that a leave is handled after its pending requests.
+		dispatch(p.getFrom(), new Runnable() {
+			
+			@Override
+			public void run() {
+				try {
+					handleMemberLeave(p);
+				} catch (ParseException e) {
+					Activator.getLog().log(LogService.LOG_ERROR, "Unable to parse JID of " + p.getFrom(), e);
+				}
+			}
+		});
 	}
 	
 	/**
-	 * Handle case that swarm peer has joined swarm.  This is triggered upon XMPP presence events.
-	 * @param p
-	 * @throws ParseException
+	 * @param p presence
+	 * @return true if the presence is of this client.
 	 */
-	protected void handleMemberJoin(Presence p) throws ParseException {
-		for (ISwarmServerRequestListener listener : requestListeners) {
-				Activator.getLog().log(
-						LogService.LOG_INFO, "On presence event, sending feed list to new swarm member " + p.getFrom());
-				listener.addMemberSwarm(swarmId);
-				
-				listener.feedListRequest(new Jid(p.getFrom()), swarmId);		
-		}		
+	private boolean isFromSelf(Presence p) {
+		String from = p.getFrom();
+		
+		return from != null && from.endsWith("/" + jid.getResource());
 	}
 	
 	/**
@@ -63,16 +76,19 @@ public class PresenceHandler extends AbstractMessageHandler implements PacketLis
 	 * @throws ParseException
 	 */
 	private void handleMemberLeave(Presence p) throws ParseException {	
-		Jid memberJid = new Jid(p.getFrom());
+		Jid memberJid = Jid.valueOf(p.getFrom());
 		if (memberJid.getResource().equals(jid.getResource())) {
 			//This means we have left a swarm
 			Activator.getLog().log(LogService.LOG_DEBUG, "We have left " + swarmId + ",  Cleaning up.");
 			swarmXMPPClient.leaveSwarm(swarmId);
+			
+			for (ISwarmServerRequestListener listener : requestListeners)
+				listener.swarmLeft(swarmId);
 		} else {
 			Activator.getLog().log(LogService.LOG_DEBUG, "Participant " + p.getFrom() + " left " + swarmId + ",  Cleaning up.");
 			
 			for (ISwarmServerRequestListener listener : requestListeners) {
-					listener.cancelFeedRequests(new Jid(p.getFrom()), swarmId);				
+					listener.cancelFeedRequests(memberJid, swarmId);				
 			}		
 		}
 	}
@@ -19,8 +19,8 @@ import com.buglabs.bug.swarm.connector.osgi.Activator;
  */
 public class PrivateMessageHandler extends AbstractMessageHandler implements MessageListener {
 
-	protected PrivateMessageHandler(Jid jid, String swarmId, List<ISwarmServerRequestListener> requestListeners) {
-		super(jid, swarmId, requestListeners);
+	protected PrivateMessageHandler(Jid jid, String swarmId, List<ISwarmServerRequestListener> requestListeners, InboundDispatcher dispatcher) {
+		super(jid, swarmId, requestListeners, dispatcher);
 	}
 
 	@Override
@@ -29,49 +29,32 @@ public class PublicMessageHandler extends AbstractMessageHandler implements Pack
 	 *            swarm associated with handler
 	 * @param requestListeners
 	 *            list of ISwarmServerRequestListeners
-	 * @throws Exception
-	 *             thrown if OSGi service binding fails
+	 * @param dispatcher
+	 *            dispatcher that runs requests off the smack listener thread
 	 */
 	protected PublicMessageHandler(final Jid jid, final String swarmId, 
-			final List<ISwarmServerRequestListener> requestListeners) {
-		super(jid, swarmId, requestListeners);		
+			final List<ISwarmServerRequestListener> requestListeners, final InboundDispatcher dispatcher) {
+		super(jid, swarmId, requestListeners, dispatcher);		
 	}
 	
 	
+	/**
+	 * Handle a message of a swarm.  Only requests and errors are received, see MessageClassifier.
+	 * 
+	 * @param packet
+	 *            XMPP packet
+	 */
 	@Override
 	public void processPacket(final Packet packet) {
-		if (isFromSelf(packet)) {			
-			return;
-		}
-
-		Activator.getLog().log(
-				LogService.LOG_INFO,
-				"Swarm " + swarmId + " received new public message from " + packet.getFrom() + " to: "	+ packet.getTo());
+		Message m = (Message) packet;
 
 		try {
-			if (packet instanceof Message) {
-				Message m = (Message) packet;
-				
-				if (m.getError() != null || m.getBody().equals("This room is not anonymous")) 
-					handleError(m, m.getFrom());
-				 else 
-					handleSwarmRequest(m.getBody(), m.getFrom());
-			
-			} else {
-				Activator.getLog().log(LogService.LOG_WARNING, "Unhandled packet received from swarm " + swarmId);
-			}
+			if (m.getError() != null || m.getType() == Message.Type.error || m.getBody().equals("This room is not anonymous")) 
+				handleError(m, m.getFrom());
+			else 
+				handleSwarmRequest(m.getBody(), m.getFrom());
 		} catch (ParseException e) {
 			Activator.getLog().log(LogService.LOG_ERROR, "Unable to parse JID.", e);
 		}
 	}
-	
-	/**
-	 * @param packet
-	 *            XMPP packet
-	 * @return true if XMPP packet came from self.
-	 */
-	private boolean isFromSelf(final Packet packet) {
-		// TODO: determine better way of determining if packet is from self
-		return packet.getFrom().endsWith(jid.getResource());
-	}
 }
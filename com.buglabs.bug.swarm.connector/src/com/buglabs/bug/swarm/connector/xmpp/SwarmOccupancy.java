@@ -0,0 +1,124 @@
+package com.buglabs.bug.swarm.connector.xmpp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Occupants of the joined swarms, maintained from presence events so that the occupancy of a swarm can be
+ * read without querying the room.  Occupants are identified by their room JID (swarm@swarms.host/nickname),
+ * and the local client is one of the occupants of each joined swarm.
+ *
+ * @author kgilmer
+ *
+ */
+public class SwarmOccupancy {
+
+	/**
+	 * Occupants of one swarm.
+	 */
+	private static final class Room {
+		private final Set<String> occupants = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		private final AtomicInteger count = new AtomicInteger();
+	}
+
+	private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<String, Room>();
+
+	/**
+	 * @param swarmId id of swarm
+	 * @param occupant room JID of occupant that became available
+	 */
+	public void joined(String swarmId, String occupant) {
+		Room room = getRoom(swarmId);
+
+		if (room.occupants.add(occupant))
+			room.count.incrementAndGet();
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @param occupant room JID of occupant that left
+	 */
+	public void left(String swarmId, String occupant) {
+		Room room = rooms.get(swarmId);
+
+		if (room != null && room.occupants.remove(occupant))
+			room.count.decrementAndGet();
+	}
+
+	/**
+	 * Forget the occupants of a swarm, when the swarm is left.
+	 *
+	 * @param swarmId id of swarm
+	 */
+	public void clear(String swarmId) {
+		rooms.remove(swarmId);
+	}
+
+	/**
+	 * Forget the occupants of all swarms.
+	 */
+	public void clear() {
+		rooms.clear();
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return number of occupants, including the local client.
+	 */
+	public int getCount(String swarmId) {
+		Room room = rooms.get(swarmId);
+
+		return room == null ? 0 : room.count.get();
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return true if there is at least one occupant besides the local client.
+	 */
+	public boolean hasPeers(String swarmId) {
+		return getCount(swarmId) > 1;
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @return room JIDs of occupants of the swarm.
+	 */
+	public List<String> getOccupants(String swarmId) {
+		Room room = rooms.get(swarmId);
+
+		if (room == null)
+			return Collections.emptyList();
+
+		return new ArrayList<String>(room.occupants);
+	}
+
+	/**
+	 * @param swarmId id of swarm
+	 * @param occupant room JID
+	 * @return true if occupant is in the swarm.
+	 */
+	public boolean contains(String swarmId, String occupant) {
+		Room room = rooms.get(swarmId);
+
+		return room != null && room.occupants.contains(occupant);
+	}
+
+	private Room getRoom(String swarmId) {
+		Room room = rooms.get(swarmId);
+
+		if (room == null) {
+			room = new Room();
+			Room existing = rooms.putIfAbsent(swarmId, room);
+
+			if (existing != null)
+				room = existing;
+		}
+
+		return room;
+	}
+}
@@ -30,9 +30,13 @@ package com.buglabs.bug.swarm.connector.xmpp;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jivesoftware.smack.Chat;
 import org.jivesoftware.smack.Connection;
@@ -40,6 +44,11 @@ import org.jivesoftware.smack.ConnectionConfiguration;
 import org.jivesoftware.smack.PacketListener;
 import org.jivesoftware.smack.XMPPConnection;
 import org.jivesoftware.smack.XMPPException;
+import org.jivesoftware.smack.filter.AndFilter;
+import org.jivesoftware.smack.filter.FromMatchesFilter;
+import org.jivesoftware.smack.filter.PacketTypeFilter;
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.XMPPError;
 import org.jivesoftware.smackx.muc.MultiUserChat;
 import org.osgi.service.log.LogService;
 
@@ -47,6 +56,11 @@ import com.buglabs.bug.swarm.client.model.Configuration;
 import com.buglabs.bug.swarm.client.model.Configuration.Protocol;
 import com.buglabs.bug.swarm.connector.model.Jid;
 import com.buglabs.bug.swarm.connector.osgi.Activator;
+import com.buglabs.bug.swarm.connector.transport.SwarmTransport;
+import com.buglabs.bug.swarm.connector.xmpp.ConnectionSupervisor.ReconnectListener;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.DeliveryListener;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.OutboundMessage;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.Priority;
 
 /**
  * Default implementation of the bugswarm-specific XMPP client.
@@ -54,31 +68,89 @@ import com.buglabs.bug.swarm.connector.osgi.Activator;
  * @author kgilmer
  * 
  */
-public class SwarmXMPPClient {
+public class SwarmXMPPClient implements SwarmTransport {
 	private volatile boolean disposed = false;
-	private XMPPConnection connection;
+	private volatile XMPPConnection connection;
 
 	/**
 	 * Swarm name as key, MUC client as value.
 	 */
-	private final Map<String, MultiUserChat> swarmMap = new HashMap<String, MultiUserChat>();
+	private final ConcurrentMap<String, MultiUserChat> swarmMap = new ConcurrentHashMap<String, MultiUserChat>();
 	private final Configuration config;
 	private final Jid jid;
-	private final List<ISwarmServerRequestListener> requestListeners;
-	private final Map<String, List<PacketListener>> requestHandlers;
-	private final Map<String, Chat> chatCache;
+	private final CopyOnWriteArrayList<ISwarmServerRequestListener> requestListeners;
+	private final ConcurrentMap<String, List<PacketListener>> requestHandlers;
+	/**
+	 * Swarms the client has joined and not left, rejoined on reconnection.  Kept apart from the handlers, which are 
+	 * bound to a connection.
+	 */
+	private final Set<String> joinedSwarms = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/**
+	 * Joined swarms that could not be rejoined after the last reconnection.
+	 */
+	private final Set<String> pendingRejoins = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ChatCache<Chat> chatCache;
 	private SwarmAssociationHandler swarmAssociationHandler;
+	private final OutboundMessageQueue outbound;
+	private final MessageBatcher batcher;
+	private final ConnectionSupervisor supervisor;
+	private final SwarmOccupancy occupancy = new SwarmOccupancy();
+	private final InboundDispatcher dispatcher;
+	private final MessageClassifier classifier;
+	private final PresenceCoalescer presenceCoalescer;
 
 	/**
 	 * @param config
 	 *            Configuration to be used to create connection.
 	 */
 	public SwarmXMPPClient(final Configuration config) {
+		this(config, OutboundMessageQueue.DEFAULT_CAPACITY, OutboundMessageQueue.DEFAULT_STREAM_LIMIT);
+	}
+	
+	/**
+	 * @param config
+	 *            Configuration to be used to create connection.
+	 * @param queueCapacity
+	 *            maximum number of messages waiting to be sent
+	 * @param streamLimit
+	 *            maximum number of messages of one stream waiting to be sent to a recipient
+	 */
+	public SwarmXMPPClient(final Configuration config, int queueCapacity, int streamLimit) {
+		this(config, queueCapacity, streamLimit, 
+				new InboundDispatcher(InboundDispatcher.DEFAULT_WORKER_COUNT, InboundDispatcher.DEFAULT_QUEUE_SIZE));
+	}
+	
+	/**
+	 * @param config
+	 *            Configuration to be used to create connection.
+	 * @param queueCapacity
+	 *            maximum number of messages waiting to be sent
+	 * @param streamLimit
+	 *            maximum number of messages of one stream waiting to be sent to a recipient
+	 * @param dispatcher
+	 *            dispatcher that runs requests from swarm peers off the smack listener thread
+	 */
+	public SwarmXMPPClient(final Configuration config, int queueCapacity, int streamLimit, InboundDispatcher dispatcher) {
 		this.config = config;
+		this.dispatcher = dispatcher;
+		this.outbound = new OutboundMessageQueue(new OutboundMessageQueue.MessageWriter() {
+			
+			@Override
+			public void write(OutboundMessage message) throws Exception {
+				if (message.getRecipient() == null)
+					writePublicMessage(message.getSwarmId(), message.getBody());
+				else
+					writePrivateMessage(message.getSwarmId(), message.getRecipient(), message.getBody());
+			}
+		}, queueCapacity, streamLimit);
+		this.batcher = new MessageBatcher(outbound);
 		this.jid = new Jid(config.getUsername(), config.getHostname(Protocol.XMPP), config.getResource());
-		this.requestListeners = new ArrayList<ISwarmServerRequestListener>();
-		this.requestHandlers = new HashMap<String, List<PacketListener>>();
-		this.chatCache = new HashMap<String, Chat>();
+		this.requestListeners = new CopyOnWriteArrayList<ISwarmServerRequestListener>();
+		this.requestHandlers = new ConcurrentHashMap<String, List<PacketListener>>();
+		this.chatCache = new ChatCache<Chat>();
+		this.supervisor = new ConnectionSupervisor(this);
+		this.classifier = new MessageClassifier(config.getResource());
+		this.presenceCoalescer = new PresenceCoalescer(requestListeners);
 	}
 
 	/**
@@ -90,26 +162,147 @@ public class SwarmXMPPClient {
 	 * @throws XMPPException
 	 *             on XMPP protocol failure
 	 */
+	@Override
 	public void connect(ISwarmServerRequestListener listener) throws IOException, XMPPException {
 		if (connection == null) {
 			connection = createConnection(config.getHostname(Protocol.XMPP), config.getXMPPPort());
 			login(connection, config.getUsername(), config.getParticipationAPIKey(), config.getResource());
+			connection.addConnectionListener(supervisor);
 			disposed = false;
+			outbound.start();
+			batcher.start();
+			dispatcher.start();
+			presenceCoalescer.start();
+			supervisor.start();
 		}
 
-		if (!requestListeners.contains(listener))
-			requestListeners.add(listener);
+		requestListeners.addIfAbsent(listener);
 		
 		swarmAssociationHandler = new SwarmAssociationHandler(this, listener);
 		connection.getChatManager().addChatListener(swarmAssociationHandler);	
 	}
+	
+	/**
+	 * Replace the connection with a new one and rejoin all joined swarms.  Called by the ConnectionSupervisor
+	 * when the connection has been lost.  Swarms that cannot be rejoined do not fail the reconnection: they are
+	 * retried with rejoin(), or forgotten if the server refuses them permanently.
+	 * 
+	 * @throws XMPPException if the new connection cannot be established
+	 */
+	synchronized void reconnect() throws XMPPException {
+		if (disposed)
+			throw new IllegalStateException("Client has been disposed.");
+		
+		XMPPConnection old = connection;
+		if (old != null) {
+			old.removeConnectionListener(supervisor);
+			if (swarmAssociationHandler != null)
+				old.getChatManager().removeChatListener(swarmAssociationHandler);
+			
+			try {
+				old.disconnect();
+			} catch (Exception e) {
+				// The connection is already broken.
+			}
+		}
+		
+		XMPPConnection c = createConnection(config.getHostname(Protocol.XMPP), config.getXMPPPort());
+		login(c, config.getUsername(), config.getParticipationAPIKey(), config.getResource());
+		c.addConnectionListener(supervisor);
+		if (swarmAssociationHandler != null)
+			c.getChatManager().addChatListener(swarmAssociationHandler);
+		connection = c;
+		
+		// Chats and rooms are bound to the old connection.
+		chatCache.clear();
+		requestHandlers.clear();
+		swarmMap.clear();
+		occupancy.clear();
+		
+		pendingRejoins.clear();
+		pendingRejoins.addAll(joinedSwarms);
+		rejoin();
+	}
+	
+	/**
+	 * Join the swarms that could not be rejoined after the last reconnection.  A swarm the server refuses 
+	 * permanently, because it no longer exists or the client is no longer a member, is left.
+	 * 
+	 * @return true if no swarm remains to be rejoined.
+	 */
+	synchronized boolean rejoin() {
+		for (String swarmId : new ArrayList<String>(pendingRejoins)) {
+			if (!joinedSwarms.contains(swarmId)) {
+				pendingRejoins.remove(swarmId);
+				continue;
+			}
+			
+			try {
+				joinSwarm(swarmId, null);
+				pendingRejoins.remove(swarmId);
+			} catch (Exception e) {
+				if (isPermanent(e)) {
+					Activator.getLog().log(LogService.LOG_ERROR, "Swarm " + swarmId + " refused rejoin, leaving it.", e);
+					pendingRejoins.remove(swarmId);
+					joinedSwarms.remove(swarmId);
+				} else {
+					Activator.getLog().log(LogService.LOG_WARNING, "Error occurred while rejoining swarm " + swarmId + ", will retry.", e);
+				}
+			}
+		}
+		
+		if (!pendingRejoins.isEmpty())
+			Activator.getLog().log(LogService.LOG_WARNING, "Swarms not rejoined: " + pendingRejoins);
+		
+		return pendingRejoins.isEmpty();
+	}
+	
+	/**
+	 * @return true if swarms remain to be rejoined after the last reconnection.
+	 */
+	boolean hasPendingRejoins() {
+		return !pendingRejoins.isEmpty();
+	}
+	
+	/**
+	 * @param e failure to join a swarm
+	 * @return true if the server refused the join for a reason that retrying will not change.
+	 */
+	private static boolean isPermanent(Exception e) {
+		if (!(e instanceof XMPPException) || ((XMPPException) e).getXMPPError() == null)
+			return false;
+		
+		XMPPError error = ((XMPPException) e).getXMPPError();
+		String condition = error.getCondition();
+		
+		return error.getCode() == 403 || error.getCode() == 404 || error.getCode() == 407
+			|| XMPPError.Condition.forbidden.toString().equals(condition)
+			|| XMPPError.Condition.item_not_found.toString().equals(condition)
+			|| XMPPError.Condition.registration_required.toString().equals(condition);
+	}
 
 	/**
 	 * @return true of the XMPP connection is active.
 	 */
+	@Override
 	public boolean isConnected() {
-		// TODO maybe inspect the connection in some way to make sure its valid.
-		return connection != null;
+		XMPPConnection c = connection;
+		
+		return c != null && c.isConnected() && c.isAuthenticated();
+	}
+	
+	/**
+	 * @return occupants of the joined swarms.
+	 */
+	public SwarmOccupancy getOccupancy() {
+		return occupancy;
+	}
+	
+	/**
+	 * @return supervisor of the connection, which provides reconnection metrics.
+	 */
+	public ConnectionSupervisor getSupervisor() {
+		return supervisor;
 	}
 
 	/**
@@ -151,27 +344,35 @@ public class SwarmXMPPClient {
 	 * @throws Exception
 	 *             On connection error
 	 */
+	@Override
 	public void joinSwarm(final String swarmId, final ISwarmServerRequestListener listener) throws Exception {
 		MultiUserChat muc = getMUC(swarmId);
 		
-		if (listener != null && !requestListeners.contains(listener))
-			requestListeners.add(listener);
+		if (listener != null)
+			requestListeners.addIfAbsent(listener);
 
 		muc.join(getResource());
 		
-		if (!requestHandlers.containsKey(swarmId)) {
-			PublicMessageHandler requestHandler = new PublicMessageHandler(jid, swarmId, requestListeners);
-			muc.addMessageListener(requestHandler);
+		List<PacketListener> handlers = new CopyOnWriteArrayList<PacketListener>();
+		if (requestHandlers.putIfAbsent(swarmId, handlers) == null) {
+			PublicMessageHandler requestHandler = new PublicMessageHandler(jid, swarmId, requestListeners, dispatcher);
+			// Registered on the connection rather than the MUC so that messages are classified before smack queues them
+			// for the listener, and only requests and errors are delivered.
+			connection.addPacketListener(requestHandler, 
+					new AndFilter(new PacketTypeFilter(Message.class), new FromMatchesFilter(muc.getRoom()), classifier));
 			
-			PresenceHandler presenceHandler = new PresenceHandler(jid, swarmId, requestListeners, this);
+			PresenceHandler presenceHandler = new PresenceHandler(jid, swarmId, requestListeners, this, dispatcher);
 			muc.addParticipantListener(presenceHandler);			
 			
-			if (!requestHandlers.containsKey(swarmId)) 
-				requestHandlers.put(swarmId, new ArrayList<PacketListener>());
-			
-			requestHandlers.get(swarmId).add(requestHandler);	
-			requestHandlers.get(swarmId).add(presenceHandler);
+			handlers.add(requestHandler);	
+			handlers.add(presenceHandler);
 		} 		
+		
+		joinedSwarms.add(swarmId);
+		
+		// Presence of the occupants present before the participant listener was added may already have been processed.
+		for (Iterator<String> i = muc.getOccupants(); i.hasNext();)
+			occupancy.joined(swarmId, i.next());
 	}
 
 	/**
@@ -180,20 +381,25 @@ public class SwarmXMPPClient {
 	 * @param swarmId
 	 *            swarm id to leave
 	 */
+	@Override
 	public void leaveSwarm(final String swarmId) {
+		joinedSwarms.remove(swarmId);
+		pendingRejoins.remove(swarmId);
 		MultiUserChat muc = swarmMap.get(swarmId);
 
 		if (muc != null && muc.isJoined()) {
-			if (requestHandlers.containsKey(swarmId)) {
-				for (PacketListener listener : requestHandlers.get(swarmId)) {
-					muc.removeMessageListener(listener);
+			List<PacketListener> handlers = requestHandlers.remove(swarmId);
+			if (handlers != null) {
+				for (PacketListener listener : handlers) {
+					connection.removePacketListener(listener);
 					muc.removeParticipantListener(listener);
 				}
-									
-				requestHandlers.remove(swarmId);
 			}
 			muc.leave();			
-			clearChatCache(swarmId);
+			chatCache.invalidateSwarm(swarmId);
+			batcher.removeSwarm(swarmId);
+			occupancy.clear(swarmId);
+			presenceCoalescer.removeSwarm(swarmId);
 		} else {
 			Activator.getLog().log(
 					LogService.LOG_WARNING, "leaveSwarm() called with a swarm not currently joined: " + swarmId);
@@ -203,7 +409,7 @@ public class SwarmXMPPClient {
 	
 
 	/**
-	 * Send a private message to a swarm peer.
+	 * Queue a private control message to a swarm peer.
 	 * 
 	 * @param swarmId
 	 *            id of swarm
@@ -214,17 +420,34 @@ public class SwarmXMPPClient {
 	 * @throws XMPPException
 	 *             on XMPP protocol error	
 	 */
+	@Override
 	public void sendPrivateMessage(final String swarmId, final String userId, final String message) throws XMPPException {
+		outbound.offer(new OutboundMessage(swarmId, userId, message, Priority.CONTROL, null));
+	}
+	
+	/**
+	 * Send a private message to a swarm peer on the calling thread.
+	 * 
+	 * @param swarmId
+	 *            id of swarm
+	 * @param userId
+	 *            id of user
+	 * @param message
+	 *            document to send
+	 * @throws XMPPException
+	 *             on XMPP protocol error	
+	 */
+	private void writePrivateMessage(final String swarmId, final String userId, final String message) throws XMPPException {
 		MultiUserChat muc = getMUC(swarmId);
 		
 		if (muc == null)
 			throw new IllegalStateException("Unable to access MUC " + swarmId);
 		
 		try {
-			Chat pchat = chatCache.get(userId + swarmId);
+			Chat pchat = chatCache.get(userId, swarmId);
 			if (pchat == null) {
-				pchat = muc.createPrivateChat(userId, new PrivateMessageHandler(new Jid(userId), swarmId, requestListeners));
-				chatCache.put(userId + swarmId, pchat);
+				pchat = muc.createPrivateChat(userId, new PrivateMessageHandler(Jid.valueOf(userId), swarmId, requestListeners, dispatcher));
+				chatCache.put(userId, swarmId, pchat);
 			}
 		
 			pchat.sendMessage(message);
@@ -234,7 +457,7 @@ public class SwarmXMPPClient {
 	}
 
 	/**
-	 * Send a public message to a swarm (MUC).
+	 * Queue a public control message to a swarm (MUC).
 	 * 
 	 * @param swarmId
 	 *            id of swarm
@@ -243,14 +466,46 @@ public class SwarmXMPPClient {
 	 * @throws XMPPException
 	 *             on XMPP protocol error
 	 */
+	@Override
 	public void sendPublicMessage(final String swarmId, final String message) throws XMPPException {
+		outbound.offer(new OutboundMessage(swarmId, null, message, Priority.CONTROL, null));
+	}
+	
+	/**
+	 * Queue a public feed update to a swarm (MUC).
+	 * 
+	 * @param swarmId
+	 *            id of swarm
+	 * @param document
+	 *            feed document
+	 * @param stream
+	 *            name of feed, a pending update of the feed is replaced by a newer one
+	 * @throws XMPPException
+	 *             on XMPP protocol error
+	 */
+	@Override
+	public void sendPublicFeed(final String swarmId, final String document, final String stream) throws XMPPException {
+		outbound.offer(new OutboundMessage(swarmId, null, document, Priority.DATA, stream));
+	}
+	
+	/**
+	 * Send a public message to a swarm (MUC) on the calling thread.
+	 * 
+	 * @param swarmId
+	 *            id of swarm
+	 * @param message
+	 *            document to send
+	 * @throws XMPPException
+	 *             on XMPP protocol error
+	 */
+	private void writePublicMessage(final String swarmId, final String message) throws XMPPException {
 		MultiUserChat muc = getMUC(swarmId);
 		
 		if (muc == null)
 			throw new IllegalStateException("Unable to access MUC " + swarmId);
 		
 		//Only send feed to swarms that have other members joined.
-		if (muc != null && muc.getOccupantsCount() > 1) {			
+		if (occupancy.hasPeers(swarmId)) {			
 				muc.sendMessage(message);
 				Activator.getLog().log(LogService.LOG_DEBUG, "Sent " + message + " to swarm " + swarmId);
 		} else {
@@ -291,6 +546,8 @@ public class SwarmXMPPClient {
 		// TODO breakout port and other config options into properties
 		config.setCompressionEnabled(Boolean.getBoolean("test.compressionEnabled"));
 		config.setSendPresence(true);
+		// Reconnection is handled by ConnectionSupervisor, which also rejoins swarms.
+		config.setReconnectionAllowed(false);
 
 		return new XMPPConnection(config);
 	}
@@ -303,10 +560,17 @@ public class SwarmXMPPClient {
 	 * @return chat client
 	 */
 	private MultiUserChat getMUC(final String roomId) {
-		if (!swarmMap.containsKey(roomId))
-			swarmMap.put(roomId, new MultiUserChat(connection, getMUCRoomName(roomId, connection.getHost())));
+		MultiUserChat muc = swarmMap.get(roomId);
+		
+		if (muc == null) {
+			muc = new MultiUserChat(connection, getMUCRoomName(roomId, connection.getHost()));
+			MultiUserChat existing = swarmMap.putIfAbsent(roomId, muc);
+			
+			if (existing != null)
+				muc = existing;
+		}
 
-		return swarmMap.get(roomId);
+		return muc;
 	}
 
 	/**
@@ -332,7 +596,14 @@ public class SwarmXMPPClient {
 			return;
 		}
 
+		supervisor.stop();
+		presenceCoalescer.stop();
+		dispatcher.stop();
+		batcher.stop();
+		outbound.stop();
+		
 		if (connection != null) {
+			connection.removeConnectionListener(supervisor);
 			if (swarmAssociationHandler != null) {
 				connection.getChatManager().removeChatListener(swarmAssociationHandler);
 				swarmAssociationHandler = null;
@@ -346,6 +617,7 @@ public class SwarmXMPPClient {
 	/**
 	 * Disconnect from server.
 	 */
+	@Override
 	public void disconnect() {
 		if (!disposed)
 			dispose();
@@ -383,17 +655,117 @@ public class SwarmXMPPClient {
 	 *             on XMPP error
 	 */
 	public void sendFeedToUser(Jid requestJid, String swarmId, String document) throws XMPPException {
-		sendPrivateMessage(swarmId, requestJid.toString(), document);		
+		sendFeedToUser(requestJid, swarmId, document, null);
+	}
+	
+	/**
+	 * Queue a feed response.  Feed responses are sent after pending control messages.
+	 * 
+	 * @param requestJid
+	 *            JID of requester
+	 * @param swarmId
+	 *            Swarm ID
+	 * @param document
+	 *            Feed as JSON document
+	 * @param stream
+	 *            name of the stream the document is a sample of, or null if the document is not part of a stream.  A 
+	 *            pending sample of a stream is dropped when a newer sample of the same stream is queued.
+	 * @throws XMPPException
+	 *             on XMPP error
+	 */
+	public void sendFeedToUser(Jid requestJid, String swarmId, String document, String stream) throws XMPPException {
+		sendFeedToUser(requestJid, swarmId, document, stream, null);
+	}
+	
+	/**
+	 * Queue a feed response.  Feed responses are sent after pending control messages, and are merged with other
+	 * responses to the requester if it has a batching window.
+	 * 
+	 * @param requestJid
+	 *            JID of requester
+	 * @param swarmId
+	 *            Swarm ID
+	 * @param document
+	 *            Feed as JSON document
+	 * @param stream
+	 *            name of the stream the document is a sample of, or null if the document is not part of a stream.
+	 * @param listener
+	 *            notified when the document has been sent or dropped, may be null
+	 * @throws XMPPException
+	 *             on XMPP error
+	 */
+	@Override
+	public void sendFeedToUser(Jid requestJid, String swarmId, String document, String stream, DeliveryListener listener) throws XMPPException {
+		batcher.offer(new OutboundMessage(swarmId, requestJid.toString(), document, Priority.DATA, stream, listener));
+	}
+	
+	/**
+	 * @return queue of messages waiting to be sent.
+	 */
+	public OutboundMessageQueue getOutboundQueue() {
+		return outbound;
+	}
+	
+	/**
+	 * @return dispatcher of requests from swarm peers.
+	 */
+	public InboundDispatcher getDispatcher() {
+		return dispatcher;
+	}
+	
+	/**
+	 * @return coalescer of the peers joining swarms, used to set the window within which joins are merged.
+	 */
+	public PresenceCoalescer getPresenceCoalescer() {
+		return presenceCoalescer;
+	}
+	
+	/**
+	 * @return classifier of messages received in swarms, with the number of messages of each class.
+	 */
+	public MessageClassifier getClassifier() {
+		return classifier;
+	}
+	
+	/**
+	 * @return batcher of feed responses, used to set batching windows.
+	 */
+	public MessageBatcher getBatcher() {
+		return batcher;
 	}
 
 	/**
-	 * Clear the chat cache based on subset of key.  Intended to be user (resource) or swarm.
-	 * @param identity
+	 * @return cache of private chats.
 	 */
-	public void clearChatCache(String identity) {
-		List<String> caches = new ArrayList(chatCache.keySet());
-		for (String name : caches)
-			if (name.contains(identity))
-				chatCache.remove(name);	
+	public ChatCache<Chat> getChatCache() {
+		return chatCache;
+	}
+
+	/**
+	 * Remove the cached private chats with a peer.
+	 * 
+	 * @param peer full jid of peer
+	 */
+	public void clearChatCache(Jid peer) {
+		chatCache.invalidatePeer(peer.toString());
+	}
+
+	@Override
+	public void setBatchWindow(String swarmId, Jid recipient, long window) {
+		if (recipient == null)
+			batcher.setSwarmWindow(swarmId, window);
+		else
+			batcher.setRecipientWindow(recipient.toString(), swarmId, window);
+	}
+
+	@Override
+	public void peerLeft(Jid peer, String swarmId) {
+		clearChatCache(peer);
+		batcher.removeRecipient(peer.toString(), swarmId);
+	}
+
+	@Override
+	public void addReconnectListener(ReconnectListener listener) {
+		supervisor.addReconnectListener(listener);
 	}
 }
@@ -0,0 +1,46 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.AdaptiveRate;
+
+public class AdaptiveRateTests extends TestCase {
+
+	public void testSlowDownAndRecover() {
+		AdaptiveRate rate = new AdaptiveRate(1000);
+
+		assertTrue(rate.tick());
+		assertTrue(rate.tick());
+
+		// Slow delivery halves the rate.
+		assertTrue(rate.delivered(1500));
+		assertEquals(2000, rate.getPeriod());
+		assertFalse(rate.tick());
+		assertTrue(rate.tick());
+
+		assertTrue(rate.dropped());
+		assertEquals(4000, rate.getPeriod());
+
+		// Consecutive fast deliveries restore the rate one step at a time.
+		for (int i = 0; i < 4; ++i)
+			assertFalse(rate.delivered(10));
+		assertTrue(rate.delivered(10));
+		assertEquals(2000, rate.getPeriod());
+	}
+
+	public void testBounds() {
+		AdaptiveRate rate = new AdaptiveRate(1000);
+
+		for (int i = 0; i < 10; ++i)
+			rate.dropped();
+
+		assertEquals(AdaptiveRate.MAX_DIVISOR, rate.getDivisor());
+		assertFalse(rate.dropped());
+
+		for (int i = 0; i < 100; ++i)
+			rate.delivered(0);
+
+		assertEquals(1, rate.getDivisor());
+		assertEquals(1000, rate.getRequestedPeriod());
+	}
+}
@@ -0,0 +1,53 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.xmpp.ChatCache;
+
+public class ChatCacheTests extends TestCase {
+
+	public void testEvictLeastRecentlyUsed() {
+		ChatCache<String> cache = new ChatCache<String>(2, 60000);
+
+		cache.put("a@host/1", "s1", "a");
+		cache.put("b@host/1", "s1", "b");
+		assertEquals("a", cache.get("a@host/1", "s1"));
+
+		cache.put("c@host/1", "s1", "c");
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull(cache.get("b@host/1", "s1"));
+		assertEquals("a", cache.get("a@host/1", "s1"));
+		assertEquals("c", cache.get("c@host/1", "s1"));
+
+		assertEquals(3, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testIdleExpiry() throws InterruptedException {
+		ChatCache<String> cache = new ChatCache<String>(10, 50);
+
+		cache.put("a@host/1", "s1", "a");
+		Thread.sleep(100);
+
+		assertNull(cache.get("a@host/1", "s1"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getExpirations());
+	}
+
+	public void testInvalidate() {
+		ChatCache<String> cache = new ChatCache<String>(10, 60000);
+
+		cache.put("a@host/1", "s1", "a1");
+		cache.put("a@host/1", "s2", "a2");
+		cache.put("a@host/10", "s1", "a10");
+		cache.put("b@host/1", "s2", "b2");
+
+		assertEquals(2, cache.invalidatePeer("a@host/1"));
+		assertEquals("a10", cache.get("a@host/10", "s1"));
+
+		assertEquals(1, cache.invalidateSwarm("s2"));
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.invalidateSwarm("s2"));
+	}
+}
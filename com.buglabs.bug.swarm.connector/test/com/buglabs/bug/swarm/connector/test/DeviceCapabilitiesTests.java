@@ -0,0 +1,56 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.model.DeviceCapabilities;
+
+public class DeviceCapabilitiesTests extends TestCase {
+
+	public void testDelta() {
+		DeviceCapabilities dc = new DeviceCapabilities();
+		Map<String, String> modules = new HashMap<String, String>();
+		modules.put("slot1", "gps");
+
+		Map<String, Object> delta = content(dc.update(Arrays.asList("location", "picture"), modules));
+		assertEquals(1L, delta.get("version"));
+		assertEquals(0L, delta.get("base"));
+		assertEquals(2, ((List) ((Map) delta.get("added")).get("feeds")).size());
+
+		// Unchanged state does not produce a new version.
+		assertNull(dc.update(Arrays.asList("picture", "location"), modules));
+		assertEquals(1, dc.getVersion());
+
+		modules.put("slot1", "camera");
+		delta = content(dc.update(Arrays.asList("location"), modules));
+		assertEquals(2L, delta.get("version"));
+		assertEquals(1L, delta.get("base"));
+		assertEquals(Collections.singletonList("picture"), ((Map) delta.get("removed")).get("feeds"));
+		assertEquals("camera", ((Map) ((Map) delta.get("added")).get("modules")).get("slot1"));
+		assertTrue(((List) ((Map) delta.get("removed")).get("modules")).isEmpty());
+	}
+
+	public void testDocument() {
+		DeviceCapabilities dc = new DeviceCapabilities();
+		Map<String, String> modules = new HashMap<String, String>();
+		modules.put("slot3", "lcd");
+
+		dc.update(Arrays.asList("location"), modules);
+		Map<String, Object> doc = content(dc.getDocument());
+
+		assertEquals(1L, doc.get("version"));
+		assertEquals(Collections.singletonList("location"), doc.get("feeds"));
+		assertEquals(modules, doc.get("modules"));
+		assertFalse(doc.containsKey("base"));
+	}
+
+	private static Map<String, Object> content(Map<String, Object> root) {
+		assertNotNull(root);
+		return (Map<String, Object>) root.get("capabilities");
+	}
+}
@@ -0,0 +1,118 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.smile.SmileFactory;
+
+import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.FeedEncoder;
+import com.buglabs.bug.swarm.connector.model.FeedRequest;
+
+public class FeedEncoderTests extends TestCase {
+
+	/**
+	 * Feed with a timestamp set by the test, as a feed service would.
+	 */
+	private static class TimestampedFeed extends Feed {
+		private String timestamp;
+
+		TimestampedFeed(String name, Map<String, Object> feed) {
+			super(name, feed);
+		}
+
+		@Override
+		public Object getTimestamp() {
+			return timestamp;
+		}
+	}
+
+	public void testEncode() throws IOException {
+		Map<String, Object> contents = new HashMap<String, Object>();
+		contents.put("latitude", 42.36);
+		contents.put("fix", true);
+
+		String document = new FeedEncoder().encode(new Feed("location", contents));
+		Map<?, ?> decoded = new ObjectMapper().readValue(document, Map.class);
+
+		assertEquals("location", decoded.get("name"));
+		assertEquals(contents, decoded.get("feed"));
+	}
+
+	public void testReuseWhileTimestampUnchanged() throws IOException {
+		Map<String, Object> contents = new HashMap<String, Object>();
+		TimestampedFeed feed = new TimestampedFeed("location", contents);
+		FeedEncoder encoder = new FeedEncoder();
+
+		contents.put("latitude", 1);
+		feed.timestamp = "1";
+		String first = encoder.encode(feed);
+		assertSame(first, encoder.encode(feed));
+
+		contents.put("latitude", 2);
+		feed.timestamp = "2";
+		String second = encoder.encode(feed);
+		assertTrue(second.contains("2"));
+		assertEquals(2, encoder.getEncodes());
+		assertEquals(1, encoder.getReuses());
+
+		// Without a timestamp the feed is encoded every time.
+		feed.timestamp = null;
+		encoder.encode(feed);
+		encoder.encode(feed);
+		assertEquals(4, encoder.getEncodes());
+	}
+
+	public void testSmile() throws IOException {
+		Map<String, Object> contents = new HashMap<String, Object>();
+		contents.put("x", 0.5);
+		contents.put("y", -1.25);
+
+		assertTrue(FeedEncoder.isSmileAvailable());
+
+		String document = new FeedEncoder().encodeSmile(new Feed("accelerometer", contents));
+		JsonNode root = new ObjectMapper().readTree(document);
+
+		assertEquals("accelerometer", root.get("name").getTextValue());
+		assertEquals("smile", root.get("encoding").getTextValue());
+
+		Map<?, ?> decoded = new ObjectMapper(new SmileFactory()).readValue(root.get("data").getBinaryValue(), Map.class);
+		assertEquals(contents, decoded);
+	}
+
+	public void testSmileOnlyWhenSmaller() throws IOException {
+		FeedEncoder encoder = new FeedEncoder();
+		Map<String, Object> small = new HashMap<String, Object>();
+		small.put("x", 0.5);
+
+		// The base64 wrapped Smile document of a small feed is larger than JSON.
+		Feed feed = new Feed("accelerometer", small);
+		FeedEncoder.Documents documents = encoder.encode(feed, true);
+		assertNull(documents.getSmile());
+		assertSame(documents.getJson(), documents.get(FeedRequest.ENCODING_SMILE));
+
+		Map<String, Object> large = new HashMap<String, Object>();
+		List<Map<String, Object>> fixes = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 32; ++i) {
+			Map<String, Object> fix = new HashMap<String, Object>();
+			fix.put("latitude", 42.360083);
+			fix.put("longitude", -71.05888);
+			fix.put("timestamp", 1318546500000L + i);
+			fixes.add(fix);
+		}
+		large.put("fixes", fixes);
+
+		documents = encoder.encode(new Feed("track", large), true);
+		assertNotNull(documents.getSmile());
+		assertTrue(documents.getSmile().length() < documents.getJson().length());
+		assertSame(documents.getSmile(), documents.get(FeedRequest.ENCODING_SMILE));
+		assertSame(documents.getJson(), documents.get(FeedRequest.ENCODING_JSON));
+	}
+}
@@ -0,0 +1,111 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.FeedEncoder;
+import com.buglabs.bug.swarm.connector.model.FeedRequest;
+
+/**
+ * Reports the size of the feed responses sent to swarm peers and the time to encode them, in JSON and in the Smile
+ * encoding, for the numeric feeds devices stream.  Smile is only sent to peers when the wrapped document is smaller.  Run with: java FeedEncodingBenchmark [iterations]
+ *
+ * @author kgilmer
+ *
+ */
+public class FeedEncodingBenchmark {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private static Map<String, Object> accelerometer() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("x", 0.0123456);
+		m.put("y", -0.981234);
+		m.put("z", 0.1534567);
+		return m;
+	}
+
+	private static Map<String, Object> location() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("latitude", 42.360083);
+		m.put("longitude", -71.05888);
+		m.put("altitude", 12.5);
+		m.put("speed", 0.0);
+		m.put("satellites", 7);
+		m.put("timestamp", 1318546500000L);
+		return m;
+	}
+
+	private static Map<String, Object> devicestats() {
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("uptime", 1234567);
+		m.put("loadavg", new double[] {0.12, 0.25, 0.31});
+		m.put("memtotal", 262144);
+		m.put("memfree", 81234);
+		m.put("disktotal", 3932160);
+		m.put("diskfree", 2101234);
+		m.put("cpuusage", 23);
+		m.put("battery", 87);
+		return m;
+	}
+
+	/**
+	 * @return a track of recent fixes, a larger feed with keys repeated in every element.
+	 */
+	private static Map<String, Object> track() {
+		List<Map<String, Object>> fixes = new ArrayList<Map<String, Object>>();
+		
+		for (int i = 0; i < 32; ++i) {
+			Map<String, Object> fix = location();
+			fix.put("timestamp", 1318546500000L + i * 1000);
+			fixes.add(fix);
+		}
+		
+		Map<String, Object> m = new LinkedHashMap<String, Object>();
+		m.put("fixes", fixes);
+		return m;
+	}
+
+	private static long time(FeedEncoder encoder, Feed feed, String encoding, int iterations) throws IOException {
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; ++i)
+			encoder.encode(feed, encoding);
+
+		return (System.nanoTime() - start) / iterations;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		Feed[] feeds = {new Feed("accelerometer", accelerometer()), new Feed("location", location()),
+				new Feed("devicestats", devicestats()), new Feed("track", track())};
+
+		if (!FeedEncoder.isSmileAvailable()) {
+			System.out.println("Smile is not available.");
+			return;
+		}
+
+		for (Feed feed : feeds) {
+			// Feeds without a timestamp are encoded on every call.
+			FeedEncoder encoder = new FeedEncoder();
+			String json = encoder.encode(feed, FeedRequest.ENCODING_JSON);
+			String smile = encoder.encodeSmile(feed);
+			boolean sent = encoder.encode(feed, FeedRequest.ENCODING_SMILE).contains("\"encoding\"");
+			int raw = mapper.readTree(smile).get("data").getBinaryValue().length;
+
+			time(encoder, feed, FeedRequest.ENCODING_JSON, iterations);
+			time(encoder, feed, FeedRequest.ENCODING_SMILE, iterations);
+
+			System.out.println(feed.getName() + ": json " + json.length() + " bytes "
+					+ time(encoder, feed, FeedRequest.ENCODING_JSON, iterations) + " ns, smile " + smile.length() + " bytes ("
+					+ raw + " bytes before base64) " + time(encoder, feed, FeedRequest.ENCODING_SMILE, iterations) + " ns, sent as "
+						+ (sent ? "smile" : "json"));
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+
+import com.buglabs.bug.swarm.connector.model.FeedRequest;
+
+/**
+ * Compares FeedRequest.parseJSON with the tree based parser it replaced, on a mix of the messages received in a swarm.
+ * Run with: java FeedRequestBenchmark [iterations]
+ *
+ * @author kgilmer
+ *
+ */
+public class FeedRequestBenchmark {
+
+	/**
+	 * Messages in the proportion they are received: mostly stream requests and capabilities broadcasts of other
+	 * connectors, some feed list and meta requests, and the occasional invalid message.
+	 */
+	private static final String[] MIX = {
+		"{\"type\": \"get\", \"feed\": \"location\", \"params\": {\"frequency\": 10}}",
+		"{\"type\": \"get\", \"feed\": \"accelerometer\", \"params\": {\"frequency\": 1, \"batchWindow\": 500}}",
+		"{\"type\": \"get\", \"feed\": \"location\", \"params\": {\"mode\": \"onchange\", \"minInterval\": 2, \"maxInterval\": 60}}",
+		"{\"type\": \"get\", \"feed\": \"Picture\", \"params\": {\"format\": \"jpg\", \"tags\": [\"a\", \"b\"]}}",
+		"{\"capabilities\": {\"feeds\": [\"location\", \"accelerometer\", \"Picture\", \"modules\"], \"modules\": {\"slot1\": \"GPS\", \"slot2\": \"CAMERA\"}, \"version\": 12}}",
+		"{\"capabilities\": {\"feeds\": [\"location\"], \"version\": 3}}",
+		"{\"type\": \"get\", \"feed\": \"feeds\"}",
+		"{\"type\": \"put\", \"feed\": \"location\", \"params\": {\"status\": \"off\"}}",
+		"{\"name\": \"location\", \"feed\": {\"latitude\": 42.36, \"longitude\": -71.06, \"timestamp\": 1318546500000}}",
+		"{\"type\": \"get\", \"feed\": \"location\""
+	};
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	/**
+	 * The tree based parser, as FeedRequest.parseJSON was before it read a token stream.
+	 */
+	private static FeedRequest parseTree(String jsonString) {
+		try {
+			JsonNode jn = mapper.readTree(jsonString);
+
+			if (jn.has("type") && jn.has("feed")) {
+				String type = jn.get("type").getTextValue();
+				String name = jn.get("feed").getTextValue();
+				Map<String, Object> frp = new HashMap<String, Object>();
+				if (jn.has("params")) {
+					for (Iterator<Entry<String, JsonNode>> jni = jn.get("params").getFields(); jni.hasNext();) {
+						Entry<String, JsonNode> pn = jni.next();
+						if (pn.getKey().equals("frequency") || pn.getKey().equals("minInterval") || pn.getKey().equals("maxInterval")
+								|| pn.getKey().equals("batchWindow"))
+							frp.put(pn.getKey(), pn.getValue().asInt());
+						else if (pn.getValue().isArray())
+							frp.put(pn.getKey(), mapper.readValue(pn.getValue(), List.class));
+						else
+							frp.put(pn.getKey(), pn.getValue().asText());
+					}
+				}
+
+				return new FeedRequest(type, name, frp);
+			}
+		} catch (Exception e) {
+		}
+
+		return null;
+	}
+
+	private interface Parser {
+		FeedRequest parse(String json);
+	}
+
+	private static long run(Parser parser, int iterations) {
+		int parsed = 0;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < iterations; ++i)
+			for (String m : MIX)
+				if (parser.parse(m) != null)
+					parsed++;
+
+		long elapsed = System.nanoTime() - start;
+
+		if (parsed != iterations * 6)
+			throw new IllegalStateException("Unexpected number of requests parsed: " + parsed);
+
+		return elapsed;
+	}
+
+	public static void main(String[] args) {
+		int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+		Parser tree = new Parser() {
+
+			@Override
+			public FeedRequest parse(String json) {
+				return parseTree(json);
+			}
+		};
+		Parser stream = new Parser() {
+
+			@Override
+			public FeedRequest parse(String json) {
+				return FeedRequest.parseJSON(json);
+			}
+		};
+
+		// Warm up both parsers before measuring.
+		run(tree, iterations / 10);
+		run(stream, iterations / 10);
+
+		for (int round = 0; round < 3; ++round) {
+			long t = run(tree, iterations);
+			long s = run(stream, iterations);
+			long messages = (long) iterations * MIX.length;
+
+			System.out.println("round " + round + ": tree " + t / messages + " ns/message, stream " + s / messages
+					+ " ns/message");
+		}
+	}
+}
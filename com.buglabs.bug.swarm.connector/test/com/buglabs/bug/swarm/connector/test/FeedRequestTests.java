@@ -27,4 +27,42 @@ public class FeedRequestTests extends TestCase {
 		assertTrue(fr.getParams().get("foo") instanceof List);
 		assertTrue(((List) fr.getParams().get("foo")).size() == 2);
 	}
+	
+	public void testParseOnChange() {
+		FeedRequest fr = FeedRequest.parseJSON("{ \"type\": \"get\", \"feed\": \"location\", \"params\": { \"mode\": \"onchange\", \"minInterval\": 2, \"maxInterval\": 60 } }");
+		
+		assertTrue(fr.isFeedRequest());
+		assertTrue(fr.isOnChange());
+		assertFalse(fr.hasFrequency());
+		assertEquals(2, fr.getMinInterval());
+		assertEquals(60, fr.getMaxInterval());
+		
+		fr = FeedRequest.parseJSON("{ \"type\": \"get\", \"feed\": \"location\", \"params\": { \"frequency\": 20 } }");
+		assertFalse(fr.isOnChange());
+		assertEquals(0, fr.getMinInterval());
+	}
+	
+	public void testParseFieldOrderAndTypes() {
+		FeedRequest fr = FeedRequest.parseJSON("{ \"params\": { \"frequency\": \"5\", \"batchWindow\": 250.0, \"status\": \"off\" }, \"extra\": { \"a\": [1, 2] }, \"feed\": \"location\", \"type\": \"put\" }");
+		
+		assertEquals(FeedRequest.FeedType.put, fr.getType());
+		assertEquals("location", fr.getName());
+		assertEquals(5, fr.getParams().get("frequency"));
+		assertEquals(250, fr.getBatchWindow());
+		assertTrue(fr.isFeedMetaRequest());
+		
+		fr = FeedRequest.parseJSON("{ \"type\": \"get\", \"feed\": \"feeds\" }");
+		assertTrue(fr.isFeedListRequest());
+		assertTrue(fr.getParams().isEmpty());
+	}
+	
+	public void testRejectInvalid() {
+		assertNull(FeedRequest.parseJSON("{\"capabilities\": { \"feeds\": [] } }"));
+		assertNull(FeedRequest.parseJSON("{ \"name\": \"location\", \"feed\": { \"type\": \"get\" } }"));
+		assertNull(FeedRequest.parseJSON("{ \"type\": \"fetch\", \"feed\": \"location\" }"));
+		assertNull(FeedRequest.parseJSON("{ \"type\": 1, \"feed\": \"location\" }"));
+		assertNull(FeedRequest.parseJSON("{ \"type\": \"get\", \"feed\": \"location\""));
+		assertNull(FeedRequest.parseJSON("[ \"type\" ]"));
+		assertNull(FeedRequest.parseJSON("This room is not anonymous"));
+	}
 }
@@ -0,0 +1,298 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.log.LogService;
+
+import com.buglabs.bug.swarm.connector.AbstractFeedResponseTask;
+import com.buglabs.bug.swarm.connector.FeedRecipient;
+import com.buglabs.bug.swarm.connector.FeedScheduler;
+import com.buglabs.bug.swarm.connector.OnChangeFeedStream;
+import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.Jid;
+
+public class FeedSchedulerTests extends TestCase {
+
+	/**
+	 * LogService that discards all messages.
+	 */
+	private static class NullLog implements LogService {
+
+		@Override
+		public void log(int level, String message) {
+		}
+
+		@Override
+		public void log(int level, String message, Throwable exception) {
+		}
+
+		@Override
+		public void log(ServiceReference sr, int level, String message) {
+		}
+
+		@Override
+		public void log(ServiceReference sr, int level, String message, Throwable exception) {
+		}
+	}
+
+	public void testOneShotsNeverRunOnTickThread() throws InterruptedException {
+		FeedScheduler scheduler = new FeedScheduler(1, 1, new NullLog());
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<String> threads = new CopyOnWriteArrayList<String>();
+		final CountDownLatch done = new CountDownLatch(4);
+
+		try {
+			// Occupy the only worker, then fill the queue.
+			scheduler.execute("blocker", new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+
+			for (int i = 0; i < 4; ++i)
+				scheduler.scheduleOnce("one-shot " + i, new Runnable() {
+
+					@Override
+					public void run() {
+						threads.add(Thread.currentThread().getName());
+						done.countDown();
+					}
+				}, 0);
+
+			Thread.sleep(200);
+			release.countDown();
+
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+			for (String name : threads)
+				assertTrue(name, name.startsWith("bugswarm-feed-worker"));
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	public void testTicksAreSkippedWhileRunning() throws InterruptedException {
+		FeedScheduler scheduler = new FeedScheduler(2, 16, new NullLog());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+
+		try {
+			// Each execution takes 10 periods.
+			FeedScheduler.ScheduledStream stream = scheduler.schedule("slow", new Runnable() {
+
+				@Override
+				public void run() {
+					if (running.incrementAndGet() > 1)
+						overlaps.incrementAndGet();
+
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+
+					running.decrementAndGet();
+				}
+			}, 10);
+
+			Thread.sleep(350);
+			stream.cancel();
+
+			assertEquals(0, overlaps.get());
+			assertTrue(stream.getExecutions() >= 2 && stream.getExecutions() <= 5);
+			assertTrue(stream.getSkippedTicks() >= 10);
+			assertEquals(0, stream.getFailures());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	public void testFailingStreamDoesNotAffectOthers() throws InterruptedException {
+		FeedScheduler scheduler = new FeedScheduler(1, 16, new NullLog());
+
+		try {
+			FeedScheduler.ScheduledStream failing = scheduler.schedule("failing", new Runnable() {
+
+				@Override
+				public void run() {
+					throw new IllegalStateException("failure");
+				}
+			}, 10);
+			FeedScheduler.ScheduledStream healthy = scheduler.schedule("healthy", new Runnable() {
+
+				@Override
+				public void run() {
+				}
+			}, 10);
+
+			Thread.sleep(200);
+			failing.cancel();
+			healthy.cancel();
+
+			// The only worker survives the failures.
+			assertTrue(failing.getExecutions() > 5);
+			assertEquals(failing.getExecutions(), failing.getFailures());
+			assertTrue(healthy.getExecutions() > 5);
+			assertEquals(0, healthy.getFailures());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	public void testLagAndSkippedTickStatistics() throws InterruptedException {
+		FeedScheduler scheduler = new FeedScheduler(1, 1, new NullLog());
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+
+		try {
+			// Occupy the only worker, then the only queue slot.
+			scheduler.execute("blocker", new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			});
+			Thread.sleep(20);
+
+			FeedScheduler.ScheduledStream late = scheduler.execute("late", new Runnable() {
+
+				@Override
+				public void run() {
+					done.countDown();
+				}
+			});
+
+			// Ticks of a stream find no worker and are skipped.
+			FeedScheduler.ScheduledStream stream = scheduler.schedule("stream", new Runnable() {
+
+				@Override
+				public void run() {
+				}
+			}, 10);
+
+			Thread.sleep(150);
+			assertEquals(0, stream.getExecutions());
+			assertTrue(stream.getSkippedTicks() >= 5);
+
+			release.countDown();
+			assertTrue(done.await(5, TimeUnit.SECONDS));
+
+			assertEquals(1, late.getExecutions());
+			assertTrue(late.getLastLag() >= 100);
+			assertEquals(late.getLastLag(), late.getMaxLag());
+
+			Thread.sleep(50);
+			stream.cancel();
+			assertTrue(stream.getExecutions() > 0);
+			assertTrue(stream.getMaxLag() >= stream.getLastLag());
+		} finally {
+			scheduler.shutdown();
+		}
+	}
+
+	public void testOnChangeSendsDoNotOverlap() throws Exception {
+		FeedScheduler scheduler = new FeedScheduler(4, 16, new NullLog());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger overlaps = new AtomicInteger();
+		final AtomicInteger sends = new AtomicInteger();
+		final String caller = Thread.currentThread().getName();
+		final List<String> threads = new CopyOnWriteArrayList<String>();
+
+		AbstractFeedResponseTask<String> task = new AbstractFeedResponseTask<String>(new Feed("test", new HashMap<String, Object>()),
+				new NullLog()) {
+
+			@Override
+			protected String sample() throws IOException {
+				return "";
+			}
+
+			@Override
+			protected void send(FeedRecipient recipient, String payload) throws Exception {
+				if (running.incrementAndGet() > 1)
+					overlaps.incrementAndGet();
+
+				threads.add(Thread.currentThread().getName());
+				Thread.sleep(20);
+				sends.incrementAndGet();
+				running.decrementAndGet();
+			}
+		};
+		task.addRecipient(new FeedRecipient(Jid.valueOf("swarm@swarms.bugswarm.net/peer"), "swarm"));
+
+		// Heartbeats every 5ms race with changes.
+		OnChangeFeedStream stream = new OnChangeFeedStream("test", task, scheduler, 0, 5);
+
+		try {
+			stream.start();
+			for (int i = 0; i < 20; ++i) {
+				stream.changed();
+				Thread.sleep(7);
+			}
+
+			Thread.sleep(50);
+		} finally {
+			stream.cancel();
+			scheduler.shutdown();
+		}
+
+		assertTrue(sends.get() > 1);
+		assertEquals(0, overlaps.get());
+		assertFalse(threads.contains(caller));
+	}
+
+	public void testHeartbeatCoversCoalescedChange() throws Exception {
+		FeedScheduler scheduler = new FeedScheduler(2, 16, new NullLog());
+		final List<Long> sent = new CopyOnWriteArrayList<Long>();
+
+		AbstractFeedResponseTask<String> task = new AbstractFeedResponseTask<String>(new Feed("test", new HashMap<String, Object>()),
+				new NullLog()) {
+
+			@Override
+			protected String sample() throws IOException {
+				return "";
+			}
+
+			@Override
+			protected void send(FeedRecipient recipient, String payload) throws Exception {
+				sent.add(System.currentTimeMillis());
+			}
+		};
+		task.addRecipient(new FeedRecipient(Jid.valueOf("swarm@swarms.bugswarm.net/peer"), "swarm"));
+
+		// The heartbeat at 200ms lands inside the window of the change made at 50ms, which waits until 300ms.
+		OnChangeFeedStream stream = new OnChangeFeedStream("test", task, scheduler, 300, 200);
+
+		try {
+			stream.start();
+			Thread.sleep(50);
+			stream.changed();
+			Thread.sleep(650);
+		} finally {
+			stream.cancel();
+			scheduler.shutdown();
+		}
+
+		assertTrue(sent.size() >= 3);
+		for (int i = 1; i < sent.size(); ++i)
+			assertTrue("sends " + (sent.get(i) - sent.get(i - 1)) + "ms apart", sent.get(i) - sent.get(i - 1) >= 150);
+	}
+}
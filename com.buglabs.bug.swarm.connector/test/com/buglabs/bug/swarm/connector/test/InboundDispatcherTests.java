@@ -0,0 +1,84 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.xmpp.InboundDispatcher;
+
+public class InboundDispatcherTests extends TestCase {
+
+	public void testPerPeerOrder() throws InterruptedException {
+		InboundDispatcher dispatcher = new InboundDispatcher(4, 100);
+		final List<String> handled = Collections.synchronizedList(new ArrayList<String>());
+		final CountDownLatch done = new CountDownLatch(100);
+
+		dispatcher.start();
+
+		for (int i = 0; i < 50; ++i) {
+			for (final String peer : new String[] {"a", "b"}) {
+				final int n = i;
+				assertTrue(dispatcher.dispatch(peer, new Runnable() {
+
+					@Override
+					public void run() {
+						handled.add(peer + n);
+						done.countDown();
+					}
+				}));
+			}
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		dispatcher.stop();
+
+		int a = 0;
+		int b = 0;
+		for (String h : handled) {
+			if (h.startsWith("a"))
+				assertEquals("a" + a++, h);
+			else
+				assertEquals("b" + b++, h);
+		}
+	}
+
+	public void testRejectWhenPeerQueueFull() throws InterruptedException {
+		InboundDispatcher dispatcher = new InboundDispatcher(1, 2);
+		final CountDownLatch blocked = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		dispatcher.start();
+		dispatcher.dispatch("a", new Runnable() {
+
+			@Override
+			public void run() {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		});
+		assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+		Runnable noop = new Runnable() {
+
+			@Override
+			public void run() {
+			}
+		};
+
+		assertTrue(dispatcher.dispatch("a", noop));
+		assertTrue(dispatcher.dispatch("a", noop));
+		assertFalse(dispatcher.dispatch("a", noop));
+		assertEquals(1, dispatcher.getRejected());
+		assertEquals(2, dispatcher.getPending());
+
+		release.countDown();
+		dispatcher.stop();
+	}
+}
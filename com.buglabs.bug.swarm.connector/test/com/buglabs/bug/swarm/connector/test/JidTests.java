@@ -0,0 +1,44 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.text.ParseException;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.model.Jid;
+
+public class JidTests extends TestCase {
+
+	public void testParse() throws ParseException {
+		Jid jid = new Jid("swarm@swarms.xmpp.bugswarm.net/resource");
+
+		assertEquals("swarm", jid.getUsername());
+		assertEquals("swarms.xmpp.bugswarm.net", jid.getHostname());
+		assertEquals("resource", jid.getResource());
+		assertEquals("swarm@swarms.xmpp.bugswarm.net/resource", jid.toString());
+
+		jid = new Jid("user@host@domain/res@x");
+		assertEquals("user", jid.getUsername());
+		assertEquals("host@domain", jid.getHostname());
+		assertEquals("res@x", jid.getResource());
+
+		for (String invalid : new String[] {"user", "user@host", "user@host/", "user@host/a/b", "user/res"}) {
+			try {
+				new Jid(invalid);
+				fail("Parsed " + invalid);
+			} catch (ParseException e) {
+			}
+		}
+	}
+
+	public void testEqualityAndCache() throws ParseException {
+		Jid a = new Jid("swarm@swarms.host/peer");
+		Jid b = new Jid("swarm", "swarms.host", "peer");
+
+		assertEquals(a, b);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertFalse(a.equals(new Jid("swarm@swarms.host/other")));
+
+		assertSame(Jid.valueOf("swarm@swarms.host/peer"), Jid.valueOf("swarm@swarms.host/peer"));
+		assertEquals(a, Jid.valueOf("swarm@swarms.host/peer"));
+	}
+}
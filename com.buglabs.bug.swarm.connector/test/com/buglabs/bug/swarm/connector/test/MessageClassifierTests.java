@@ -0,0 +1,66 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import junit.framework.TestCase;
+
+import org.jivesoftware.smack.packet.Message;
+import org.jivesoftware.smack.packet.XMPPError;
+
+import com.buglabs.bug.swarm.connector.xmpp.MessageClassifier;
+import com.buglabs.bug.swarm.connector.xmpp.MessageClassifier.MessageClass;
+
+public class MessageClassifierTests extends TestCase {
+
+	private static final String ROOM = "swarm@swarms.xmpp.bugswarm.net";
+
+	private static Message message(String nickname, String body) {
+		Message m = new Message(ROOM, Message.Type.groupchat);
+		m.setFrom(ROOM + "/" + nickname);
+		m.setBody(body);
+		return m;
+	}
+
+	public void testClassify() {
+		MessageClassifier classifier = new MessageClassifier("bug");
+
+		assertEquals(MessageClass.SELF, classifier.classify(message("bug", "{\"type\":\"get\"}")));
+		assertEquals(MessageClass.REQUEST, classifier.classify(message("otherbug", "{\"type\":\"get\",\"feed\":\"feeds\"}")));
+		assertEquals(MessageClass.REQUEST, classifier.classify(message("web", " {\"feed\":\"Location\", \"type\" : \"get\"}")));
+		assertEquals(MessageClass.BROADCAST, classifier.classify(message("web", "{\"capabilities\":{\"feeds\":[]}}")));
+		assertEquals(MessageClass.BROADCAST, classifier.classify(message("web", "{\"name\":\"x\",\"feed\":{\"type\":\"get\"}}")));
+		assertEquals(MessageClass.BROADCAST, classifier.classify(message("web", "{\"name\":\"type\"}")));
+		assertEquals(MessageClass.OTHER, classifier.classify(message("web", "hello")));
+		assertEquals(MessageClass.OTHER, classifier.classify(message("web", null)));
+		assertEquals(MessageClass.ERROR, classifier.classify(message("web", "This room is not anonymous")));
+
+		Message error = message("web", null);
+		error.setError(new XMPPError(XMPPError.Condition.item_not_found));
+		assertEquals(MessageClass.ERROR, classifier.classify(error));
+	}
+
+	public void testAcceptCounts() {
+		MessageClassifier classifier = new MessageClassifier("bug");
+
+		assertFalse(classifier.accept(message("bug", "{\"type\":\"get\"}")));
+		assertTrue(classifier.accept(message("web", "{\"type\":\"get\"}")));
+		assertFalse(classifier.accept(message("web", "{\"capabilities\":{}}")));
+		assertFalse(classifier.accept(message("web", "{\"capabilities\":{}}")));
+
+		assertEquals(1, classifier.getCount(MessageClass.SELF));
+		assertEquals(1, classifier.getCount(MessageClass.REQUEST));
+		assertEquals(2, classifier.getCount(MessageClass.BROADCAST));
+		assertEquals(0, classifier.getCount(MessageClass.ERROR));
+	}
+
+	public void testPrivateRequestNotAccepted() {
+		MessageClassifier classifier = new MessageClassifier("bug");
+		Message request = message("web", "{\"type\":\"get\",\"feed\":\"feeds\"}");
+		request.setType(Message.Type.chat);
+
+		// Private requests are answered by the private chat with the peer, not by the room handler.
+		assertEquals(MessageClass.OTHER, classifier.classify(request));
+		assertFalse(classifier.accept(request));
+
+		request.setType(Message.Type.error);
+		assertTrue(classifier.accept(request));
+	}
+}
@@ -0,0 +1,130 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.xmpp.MessageBatcher;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.OutboundMessage;
+import com.buglabs.bug.swarm.connector.xmpp.OutboundMessageQueue.Priority;
+
+public class OutboundMessageQueueTests extends TestCase {
+
+	private final List<String> written = new ArrayList<String>();
+
+	private final OutboundMessageQueue.MessageWriter writer = new OutboundMessageQueue.MessageWriter() {
+
+		@Override
+		public void write(OutboundMessage message) throws Exception {
+			synchronized (written) {
+				written.add(message.getBody());
+				written.notifyAll();
+			}
+		}
+	};
+
+	public void testControlBeforeData() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue(writer, 10, 1);
+
+		queue.offer(new OutboundMessage("swarm", "peer", "data1", Priority.DATA, null));
+		queue.offer(new OutboundMessage("swarm", null, "control", Priority.CONTROL, null));
+		queue.offer(new OutboundMessage("swarm", "peer", "data2", Priority.DATA, null));
+
+		drain(queue, 3);
+
+		assertEquals("control", written.get(0));
+		assertEquals("data1", written.get(1));
+		assertEquals("data2", written.get(2));
+	}
+
+	public void testDropOldestPerStream() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue(writer, 10, 1);
+
+		queue.offer(new OutboundMessage("swarm", "peer1", "a1", Priority.DATA, "location"));
+		queue.offer(new OutboundMessage("swarm", "peer2", "b1", Priority.DATA, "location"));
+		queue.offer(new OutboundMessage("swarm", "peer1", "a2", Priority.DATA, "location"));
+		queue.offer(new OutboundMessage("swarm", "peer1", "a3", Priority.DATA, "location"));
+
+		assertEquals(2, queue.size());
+		assertEquals(2, queue.getDropped());
+
+		drain(queue, 2);
+
+		assertEquals("b1", written.get(0));
+		assertEquals("a3", written.get(1));
+	}
+
+	public void testFullQueueDropsStreamSample() {
+		OutboundMessageQueue queue = new OutboundMessageQueue(writer, 2, 1);
+
+		queue.offer(new OutboundMessage("swarm", "peer1", "a1", Priority.DATA, "location"));
+		queue.offer(new OutboundMessage("swarm", null, "c1", Priority.CONTROL, null));
+
+		assertTrue(queue.offer(new OutboundMessage("swarm", null, "c2", Priority.CONTROL, null)));
+		assertEquals(2, queue.size());
+		assertEquals(1, queue.getDropped());
+	}
+
+	public void testBatching() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue(writer, 10, 1);
+		MessageBatcher batcher = new MessageBatcher(queue);
+		batcher.start();
+		batcher.setRecipientWindow("peer1", "swarm", 100);
+
+		batcher.offer(new OutboundMessage("swarm", "peer1", "{\"a\":1}", Priority.DATA, "a"));
+		batcher.offer(new OutboundMessage("swarm", "peer1", "{\"b\":1}", Priority.DATA, "b"));
+		batcher.offer(new OutboundMessage("swarm", "peer1", "{\"a\":2}", Priority.DATA, "a"));
+		batcher.offer(new OutboundMessage("swarm", "peer2", "{\"c\":1}", Priority.DATA, "c"));
+
+		// Only the peer that did not opt in has been queued so far.
+		assertEquals(1, queue.size());
+
+		drain(queue, 2);
+		batcher.stop();
+
+		assertEquals("{\"c\":1}", written.get(0));
+		assertEquals("[{\"b\":1},{\"a\":2}]", written.get(1));
+		assertEquals(1, batcher.getBatches());
+	}
+
+	public void testQueuedBatchIsNotSuperseded() throws InterruptedException {
+		OutboundMessageQueue queue = new OutboundMessageQueue(writer, 10, 1);
+		MessageBatcher batcher = new MessageBatcher(queue);
+		batcher.start();
+		batcher.setRecipientWindow("peer1", "swarm", 20);
+
+		// The first batch waits in the queue, which is not sending.
+		batcher.offer(new OutboundMessage("swarm", "peer1", "{\"a\":1}", Priority.DATA, "a"));
+		Thread.sleep(100);
+		assertEquals(1, queue.size());
+
+		// Later samples are held back until the queued batch has been written, a newer sample of a stream replacing
+		// the older one.
+		batcher.offer(new OutboundMessage("swarm", "peer1", "{\"b\":1}", Priority.DATA, "b"));
+		batcher.offer(new OutboundMessage("swarm", "peer1", "{\"b\":2}", Priority.DATA, "b"));
+		Thread.sleep(100);
+		assertEquals(1, queue.size());
+
+		drain(queue, 2);
+		batcher.stop();
+
+		assertEquals("[{\"a\":1}]", written.get(0));
+		assertEquals("[{\"b\":2}]", written.get(1));
+		assertEquals(0, queue.getDropped());
+	}
+
+	private void drain(OutboundMessageQueue queue, int count) throws InterruptedException {
+		queue.start();
+
+		synchronized (written) {
+			long end = System.currentTimeMillis() + 5000;
+			while (written.size() < count && System.currentTimeMillis() < end)
+				written.wait(100);
+		}
+
+		queue.stop();
+		assertEquals(count, written.size());
+	}
+}
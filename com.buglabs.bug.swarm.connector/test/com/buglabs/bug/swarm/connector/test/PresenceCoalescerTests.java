@@ -0,0 +1,72 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.model.Jid;
+import com.buglabs.bug.swarm.connector.xmpp.ISwarmServerRequestListener;
+import com.buglabs.bug.swarm.connector.xmpp.PresenceCoalescer;
+
+public class PresenceCoalescerTests extends TestCase {
+
+	private static final String ROOM = "swarm@swarms.xmpp.bugswarm.net/";
+
+	public void testJoinsMergedWithinWindow() throws InterruptedException {
+		final List<List<Jid>> notified = Collections.synchronizedList(new ArrayList<List<Jid>>());
+		final CountDownLatch done = new CountDownLatch(1);
+		List<ISwarmServerRequestListener> listeners = new ArrayList<ISwarmServerRequestListener>();
+
+		listeners.add(new SwarmRequestListener() {
+
+			@Override
+			public void membersJoined(String swarmId, List<Jid> members) {
+				notified.add(members);
+				done.countDown();
+			}
+		});
+
+		PresenceCoalescer coalescer = new PresenceCoalescer(listeners);
+		coalescer.setWindow(200);
+		coalescer.start();
+
+		for (int i = 0; i < 100; ++i)
+			coalescer.joined("swarm", ROOM + "peer" + i);
+
+		coalescer.left("swarm", ROOM + "peer0");
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		coalescer.stop();
+
+		assertEquals(1, notified.size());
+		assertEquals(99, notified.get(0).size());
+		assertEquals("peer1", notified.get(0).get(0).getResource());
+		assertEquals(100, coalescer.getJoins());
+		assertEquals(1, coalescer.getNotifications());
+	}
+
+	public void testNoWindow() {
+		final List<Jid> notified = new ArrayList<Jid>();
+		List<ISwarmServerRequestListener> listeners = new ArrayList<ISwarmServerRequestListener>();
+
+		listeners.add(new SwarmRequestListener() {
+
+			@Override
+			public void membersJoined(String swarmId, List<Jid> members) {
+				notified.addAll(members);
+			}
+		});
+
+		PresenceCoalescer coalescer = new PresenceCoalescer(listeners);
+		coalescer.setWindow(0);
+		coalescer.start();
+		coalescer.joined("swarm", ROOM + "peer");
+		coalescer.stop();
+
+		assertEquals(1, notified.size());
+	}
+}
@@ -0,0 +1,241 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+import org.osgi.framework.Bundle;
+import org.osgi.framework.ServiceReference;
+
+import com.buglabs.bug.swarm.connector.model.Feed;
+import com.buglabs.bug.swarm.connector.model.ServiceFeedAdapter;
+import com.buglabs.services.ws.IWSResponse;
+import com.buglabs.services.ws.PublicWSDefinition;
+import com.buglabs.services.ws.PublicWSProvider;
+
+public class ServiceFeedAdapterTests extends TestCase {
+
+	/**
+	 * Web service that blocks in execute() until released, and fails while failing is set.
+	 */
+	private static class SlowProvider implements PublicWSProvider {
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final AtomicInteger executions = new AtomicInteger();
+		private final AtomicInteger discoveries = new AtomicInteger();
+		private volatile boolean failing;
+
+		@Override
+		public PublicWSDefinition discover(int operation) {
+			discoveries.incrementAndGet();
+			return null;
+		}
+
+		@Override
+		public IWSResponse execute(int operation, String input) {
+			executions.incrementAndGet();
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+
+			final String mimeType = failing ? "application/octet-stream" : "text/plain";
+
+			return new IWSResponse() {
+
+				@Override
+				public boolean isError() {
+					return false;
+				}
+
+				@Override
+				public int getErrorCode() {
+					return 0;
+				}
+
+				@Override
+				public String getErrorMessage() {
+					return null;
+				}
+
+				@Override
+				public Object getContent() {
+					return "42";
+				}
+
+				@Override
+				public String getMimeType() {
+					return mimeType;
+				}
+			};
+		}
+
+		@Override
+		public String getPublicName() {
+			return "Slow";
+		}
+
+		@Override
+		public String getDescription() {
+			return "Slow";
+		}
+	}
+
+	/**
+	 * Reference of a provider service with a TTL property.
+	 */
+	private static class TTLReference implements ServiceReference {
+		private final Object ttl;
+
+		private TTLReference(Object ttl) {
+			this.ttl = ttl;
+		}
+
+		@Override
+		public Object getProperty(String key) {
+			return ServiceFeedAdapter.FEED_SERVICE_TTL_PROPERTY.equals(key) ? ttl : null;
+		}
+
+		@Override
+		public String[] getPropertyKeys() {
+			return new String[] {ServiceFeedAdapter.FEED_SERVICE_TTL_PROPERTY};
+		}
+
+		@Override
+		public Bundle getBundle() {
+			return null;
+		}
+
+		@Override
+		public Bundle[] getUsingBundles() {
+			return null;
+		}
+
+		@Override
+		public boolean isAssignableTo(Bundle bundle, String className) {
+			return true;
+		}
+
+		@Override
+		public int compareTo(Object reference) {
+			return 0;
+		}
+	}
+
+	public void testConcurrentCallsShareExecution() throws Exception {
+		final SlowProvider provider = new SlowProvider();
+		final ServiceFeedAdapter adapter = new ServiceFeedAdapter(provider);
+		final String[] results = new String[4];
+		Thread[] threads = new Thread[results.length];
+
+		for (int i = 0; i < threads.length; ++i) {
+			final int index = i;
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						results[index] = adapter.callGet(null);
+					} catch (IOException e) {
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		// Wait for all callers to be waiting on the first execution.
+		for (int i = 0; i < 100 && adapter.getSharedCalls() < threads.length - 1; ++i)
+			Thread.sleep(20);
+
+		provider.release.countDown();
+		for (Thread t : threads)
+			t.join(5000);
+
+		assertEquals(1, provider.executions.get());
+		assertEquals(1, adapter.getCalls());
+		for (String result : results)
+			assertEquals("{\"Slow\":\"42\"}", result);
+
+		// Without a TTL, completed results are not reused.
+		adapter.callGet(null);
+		assertEquals(2, provider.executions.get());
+	}
+
+	public void testFailedCallsAreNotReused() throws Exception {
+		SlowProvider provider = new SlowProvider();
+		ServiceFeedAdapter adapter = new ServiceFeedAdapter(provider);
+
+		provider.release.countDown();
+		provider.failing = true;
+		try {
+			adapter.callGet(null);
+			fail();
+		} catch (IOException e) {
+		}
+
+		provider.failing = false;
+		assertEquals("{\"Slow\":\"42\"}", adapter.callGet(null));
+		assertEquals(2, provider.executions.get());
+	}
+
+	public void testDiscoveryIsPerAdapter() throws Exception {
+		SlowProvider provider = new SlowProvider();
+		ServiceFeedAdapter adapter = new ServiceFeedAdapter(provider);
+		assertEquals(4, provider.discoveries.get());
+
+		// Calls do not discover the provider again.
+		provider.release.countDown();
+		adapter.callGet(null);
+		adapter.callGet(null);
+		assertEquals(4, provider.discoveries.get());
+
+		// Nothing is kept between adapters of a provider.
+		Feed other = Feed.createForType(provider);
+		assertNotSame(adapter.getFeed(), other.getFeed());
+		assertEquals(8, provider.discoveries.get());
+	}
+
+	public void testResultsReusedWithinNumberTTL() throws Exception {
+		assertReusedWithinTTL(Integer.valueOf(300));
+	}
+
+	public void testResultsReusedWithinStringTTL() throws Exception {
+		assertReusedWithinTTL(" 300 ");
+	}
+
+	public void testInvalidTTLIsIgnored() throws Exception {
+		SlowProvider provider = new SlowProvider();
+		ServiceFeedAdapter adapter = new ServiceFeedAdapter(provider, new TTLReference("soon"));
+
+		provider.release.countDown();
+		adapter.callGet(null);
+		adapter.callGet(null);
+		assertEquals(2, provider.executions.get());
+	}
+
+	/**
+	 * @param ttl value of the TTL property of the provider service, 300ms
+	 * @throws Exception on failure
+	 */
+	private void assertReusedWithinTTL(Object ttl) throws Exception {
+		SlowProvider provider = new SlowProvider();
+		ServiceFeedAdapter adapter = new ServiceFeedAdapter(provider, new TTLReference(ttl));
+
+		provider.release.countDown();
+		assertEquals("{\"Slow\":\"42\"}", adapter.callGet(null));
+		assertEquals("{\"Slow\":\"42\"}", adapter.callGet(null));
+		assertEquals(1, provider.executions.get());
+		assertEquals(1, adapter.getSharedCalls());
+
+		// Other parameters are a different call.
+		adapter.callGet("other");
+		assertEquals(2, provider.executions.get());
+
+		Thread.sleep(400);
+		adapter.callGet(null);
+		assertEquals(3, provider.executions.get());
+		assertEquals(3, adapter.getCalls());
+	}
+}
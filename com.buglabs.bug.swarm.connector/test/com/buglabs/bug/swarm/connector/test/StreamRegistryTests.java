@@ -0,0 +1,76 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.connector.StreamRegistry;
+import com.buglabs.bug.swarm.connector.model.Jid;
+
+public class StreamRegistryTests extends TestCase {
+
+	private final Jid peer1 = new Jid("user1", "xmpp.bugswarm.net", "web");
+	private final Jid peer2 = new Jid("user2", "xmpp.bugswarm.net", "web");
+
+	public void testAddAndLookup() {
+		StreamRegistry<String> registry = new StreamRegistry<String>();
+
+		assertTrue(registry.add(new StreamRegistry.Key("swarm1", peer1, "location"), "a"));
+		assertFalse(registry.add(new StreamRegistry.Key("swarm1", peer1, "location"), "b"));
+
+		// An equal Jid instance identifies the same stream.
+		StreamRegistry.Key key = new StreamRegistry.Key("swarm1", new Jid("user1", "xmpp.bugswarm.net", "web"), "location");
+		assertTrue(registry.contains(key));
+		assertEquals("a", registry.get(key));
+		assertEquals(1, registry.size());
+	}
+
+	public void testRemoveByPeer() {
+		StreamRegistry<String> registry = populate();
+
+		Map<StreamRegistry.Key, String> removed = registry.removeByPeer(peer1);
+
+		assertEquals(3, removed.size());
+		assertEquals(1, registry.size());
+		assertEquals(1, registry.getPeerCount());
+		assertTrue(registry.removeByPeer(peer1).isEmpty());
+	}
+
+	public void testRemoveBySwarm() {
+		StreamRegistry<String> registry = populate();
+
+		assertEquals(3, registry.removeBySwarm("swarm1").size());
+		assertEquals(1, registry.size());
+		assertEquals(1, registry.getSwarmCount());
+	}
+
+	public void testRemoveByFeed() {
+		StreamRegistry<String> registry = populate();
+
+		assertEquals(2, registry.getFeedCounts().get("location").intValue());
+		assertEquals(2, registry.removeByFeed("location").size());
+		assertNull(registry.getFeedCounts().get("location"));
+		assertEquals(2, registry.size());
+	}
+
+	public void testClear() {
+		StreamRegistry<String> registry = populate();
+
+		assertEquals(4, registry.clear().size());
+		assertEquals(0, registry.size());
+		assertEquals(0, registry.getPeerCount());
+		assertEquals(0, registry.getSwarmCount());
+		assertTrue(registry.getFeedCounts().isEmpty());
+	}
+
+	private StreamRegistry<String> populate() {
+		StreamRegistry<String> registry = new StreamRegistry<String>();
+
+		registry.add(new StreamRegistry.Key("swarm1", peer1, "location"), "a");
+		registry.add(new StreamRegistry.Key("swarm1", peer1, "acceleration"), "b");
+		registry.add(new StreamRegistry.Key("swarm2", peer1, "location"), "c");
+		registry.add(new StreamRegistry.Key("swarm1", peer2, "acceleration"), "d");
+
+		return registry;
+	}
+}
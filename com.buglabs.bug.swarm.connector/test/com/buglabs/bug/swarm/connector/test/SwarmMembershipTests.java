@@ -0,0 +1,48 @@
+package com.buglabs.bug.swarm.connector.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import com.buglabs.bug.swarm.client.model.SwarmModel;
+import com.buglabs.bug.swarm.connector.SwarmMembership;
+
+public class SwarmMembershipTests extends TestCase {
+
+	private static SwarmModel swarm(String id) {
+		return new SwarmModel(false, null, null, id, null, null, id, null);
+	}
+
+	public void testIndex() {
+		SwarmMembership membership = new SwarmMembership();
+
+		assertTrue(membership.add(swarm("a")));
+		assertTrue(membership.add(swarm("b")));
+		assertFalse(membership.add(swarm("a")));
+		assertTrue(membership.contains("a"));
+		assertFalse(membership.contains("c"));
+		assertEquals("b", membership.get("b").getId());
+		assertEquals(2, membership.size());
+
+		assertTrue(membership.remove("a"));
+		assertFalse(membership.remove("a"));
+		assertFalse(membership.contains("a"));
+		assertEquals(1, membership.size());
+	}
+
+	public void testSnapshotUnaffectedByReplace() {
+		SwarmMembership membership = new SwarmMembership();
+
+		membership.add(swarm("a"));
+		List<SwarmModel> snapshot = membership.getSwarms();
+
+		membership.replace(Arrays.asList(swarm("b"), swarm("c"), swarm("b")));
+
+		assertEquals(1, snapshot.size());
+		assertEquals("a", snapshot.get(0).getId());
+		assertEquals(2, membership.size());
+		assertFalse(membership.contains("a"));
+		assertTrue(membership.contains("c"));
+	}
+}
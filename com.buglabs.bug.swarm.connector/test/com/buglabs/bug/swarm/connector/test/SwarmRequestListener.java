@@ -1,5 +1,7 @@
 package com.buglabs.bug.swarm.connector.test;
 
+import java.util.List;
+
 import org.jivesoftware.smack.Chat;
 
 import com.buglabs.bug.swarm.connector.model.FeedRequest;
@@ -44,8 +46,18 @@ public class SwarmRequestListener implements ISwarmServerRequestListener {
 		System.out.println("cancelFeedRequests() " + jid + " " + swarmId);
 	}
 
+	@Override
+	public void swarmLeft(String swarmId) {
+		System.out.println("swarmLeft() " + swarmId);
+	}
+
 	@Override
 	public void addMemberSwarm(String swarmId) {
 		System.out.println("addMemberSwarm() " + swarmId);
 	}
+
+	@Override
+	public void membersJoined(String swarmId, List<Jid> members) {
+		System.out.println("membersJoined() " + members + " " + swarmId);
+	}
 }